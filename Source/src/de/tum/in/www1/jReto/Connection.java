@@ -1,6 +1,10 @@
 package de.tum.in.www1.jReto;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
@@ -11,6 +15,7 @@ import de.tum.in.www1.jReto.connectivity.InTransfer;
 import de.tum.in.www1.jReto.connectivity.OutTransfer;
 import de.tum.in.www1.jReto.connectivity.PacketConnection;
 import de.tum.in.www1.jReto.connectivity.ReliablitiyManager;
+import de.tum.in.www1.jReto.connectivity.TransferOutputStream;
 import de.tum.in.www1.jReto.connectivity.TransferProcessor;
 import de.tum.in.www1.jReto.connectivity.ReliablitiyManager.PacketConnectionManager;
 import de.tum.in.www1.jReto.connectivity.ReliablitiyManager.ReliabilityManagerHandler;
@@ -23,19 +28,27 @@ import de.tum.in.www1.jReto.routing.Node;
 * Furthermore, the Connection object will attempt to automatically upgrade the connection to the remote peer if a better route becomes available.
 *
 * Events
-* The Connection class gives access to five events: 
+* The Connection class gives access to six events: 
 * - onConnect: Called when the connection connects successfully. If the connection is already connected when this property is set, it is called immediately. Passes the connection that connected as a parameter.
 * - onTransfer: Called when an incoming transfer starts. It's possible to specify how the data is received, cancel the transfer, receive progress updates. Passes the connection that received the transfer and the transfer object as parameters.
 * - onData: Convenience alternative to onTransfer. If set, transfers are received automatically, and passed to this closure on completion. Is used only if onTransfer is not set. 
 * - onClose: Called when the connection closes. Passes the connection that closed as the parameter.
 * - onError: Called when an error occurs that caused the connection to close. If not set, onClose will be called when an error occurs. Passes the connection that closed as the parameter.
+* - onWritabilityChanged: Called when the value of isWritable changes. Passes the connection as the parameter.
 * 
 * You can react to the events by simply setting a lambda, e.g.
 * connection.setOnData((receivingConnection, data) -> System.out.println("received data"))
 * None of these events have to be handled, however, if you wish to receive data, you need to react to either the onTransfer or onData event.
 *
 * Sending Data
-* Data can be sent using the send methods. 
+* Data can be sent using the send methods. Transfers can be given a priority and a weight: transfers with a higher priority are always sent first, while transfers 
+* with the same priority share the connection in proportion to their weights. This allows e.g. interactive messages to overtake background traffic.
+* Data whose length is not known in advance can be streamed by writing it to an output stream obtained from openOutputStream.
+* Small messages can be sent with sendMessage, which sends them in a single packet instead of a transfer.
+* Files can be sent with sendFile, which sends their data straight from the file where the underlying connection allows it.
+* Data that was not sent yet is buffered. When the buffered data exceeds a high watermark, the connection becomes unwritable (see isWritable); it becomes writable again
+* once the buffered data drops to a low watermark. Producers of large amounts of data should stop sending while the connection is unwritable and resume in onWritabilityChanged.
+* The watermarks can be configured using setWriteBufferWatermarks.
 *
 * Receiving Data
 * The Connection class offers two means of receiving data that are mutually exclusive:
@@ -60,19 +73,27 @@ public class Connection {
 	public static interface ErrorHandler {
 		void onError(Connection connection, String error);
 	}
+	public static interface WritabilityHandler {
+		void onWritabilityChanged(Connection connection);
+	}
 	
 	private ConnectHandler connectHandler;
 	private IncomingTransferHandler incomingTransferStartedHandler;
 	private ConnectionDataHandler dataHandler;
 	private CloseHandler closeHandler;
 	private ErrorHandler errorHandler;
+	private WritabilityHandler writabilityHandler;
 	
+    /** The packet connection this connection sends and receives packets with. */
+	private final PacketConnection packetConnection;
     /** The trasfer manager, which is responsible for data transmissions. */
 	private TransferProcessor transferProcessor;
     /** The reliability manager, which is responsible for cleanly closing connections and providing automatic reconnect functionality. */
 	private ReliablitiyManager reliabilityManager;
     /** Whether this connection is currently connected. */
 	private boolean isConnected = false;
+    /** The executor delegate methods and events are dispatched on. */
+	private final Executor executor;
 	
 	/** Implements the TransferProcessor's Handler protocol and calls methods appropriately */
 	private TransferProcessorHandler transferProcessorHandler = new TransferProcessorHandler() {
@@ -80,6 +101,16 @@ public class Connection {
 		public void notifyTransferStarted(InTransfer transfer) {
 			Connection.this.notifyTransferStarted(transfer);
 		}
+
+		@Override
+		public void notifyWritabilityChanged(boolean isWritable) {
+			Connection.this.notifyWritabilityChanged();
+		}
+
+		@Override
+		public boolean notifyMessageReceived(ByteBuffer data) {
+			return Connection.this.notifyMessageReceived(data);
+		}
 	}; 
 	/** Implements the ReliabilityManager's Handler protocol and calls methods appropriately */
 	private ReliabilityManagerHandler reliablityHandler = new ReliabilityManagerHandler() {	
@@ -110,6 +141,8 @@ public class Connection {
     * @param connectionManager The connection's manager. If a reconnect is required, it is responsible to establish a new underlying connection.
     */
 	Connection(PacketConnection packetConnection, UUID localIdentifier, Executor executor, boolean isConnectionEstablisher, PacketConnectionManager connectionManager) {	
+		this.packetConnection = packetConnection;
+		this.executor = executor;
 		this.transferProcessor = new TransferProcessor(packetConnection);
 	
 		Set<UUID> destinationIdentifiers = new HashSet<>();
@@ -131,6 +164,86 @@ public class Connection {
 		return this.isConnected;
 	}
 	
+    /** Whether the data buffered for sending is below the high watermark. See setWriteBufferWatermarks. */
+	public boolean isWritable() {
+		return this.transferProcessor.getIsWritable();
+	}
+	/**
+	 * Sets the watermarks that determine whether this connection is writable. They apply to the data buffered by this connection; 
+	 * the watermarks of the underlying sockets are configured with the module (e.g. WlanModule.setSocketWriteWatermarks).
+	 * 
+	 * @param lowWatermark The number of buffered bytes at which an unwritable connection becomes writable again.
+	 * @param highWatermark The number of buffered bytes above which the connection becomes unwritable.
+	 * */
+	public void setWriteBufferWatermarks(int lowWatermark, int highWatermark) {
+		this.transferProcessor.setWatermarks(lowWatermark, highWatermark);
+	}
+	/**
+	 * Sets the maximum number of outgoing transfers that are sent at the same time. Active transfers take turns in sending data, so that small transfers 
+	 * are not delayed by large ones that were started earlier. Further transfers are queued until an active transfer ends.
+	 * 
+	 * @param maximumActiveTransfers The maximum number of active transfers. A value of 1 sends transfers strictly one after another.
+	 * */
+	public void setMaximumActiveTransfers(int maximumActiveTransfers) {
+		this.transferProcessor.setMaximumActiveTransfers(maximumActiveTransfers);
+	}
+	/**
+	 * Sets how many packets may be passed to the underlying connection before it confirmed that the previous ones were sent. 
+	 * A larger window hides the latency of underlying connections that complete writes asynchronously.
+	 * 
+	 * @param maximumPackets The maximum number of packets in flight.
+	 * @param maximumBytes The maximum number of bytes in flight.
+	 * */
+	public void setInFlightWindow(int maximumPackets, int maximumBytes) {
+		this.packetConnection.setInFlightWindow(maximumPackets, maximumBytes);
+	}
+	/**
+	 * Sets whether small packets that are queued at the same time may be sent together in a single batch, which reduces the number of writes
+	 * when many small transfers are sent in quick succession. Disabled by default. Should only be enabled if the remote peer supports batches.
+	 * */
+	public void setPacketBatchingEnabled(boolean isPacketBatchingEnabled) {
+		this.packetConnection.setIsBatchingEnabled(isPacketBatchingEnabled);
+	}
+	public boolean isPacketBatchingEnabled() {
+		return this.packetConnection.getIsBatchingEnabled();
+	}
+	/**
+	 * Sets whether sent packets are acknowledged by the remote peer, so that packets that were lost while switching to a different underlying connection 
+	 * (e.g. when a better route becomes available) are sent again. Disabled by default. 
+	 * Needs to be set on the establishing peer right after connecting; the remote peer enables acknowledgements as well when the connection is established.
+	 * Only supported by connections with a single destination.
+	 * */
+	public void setAcknowledgementsEnabled(boolean isAcknowledgementEnabled) {
+		if (isAcknowledgementEnabled && this.packetConnection.getDestinations().size() != 1) throw new IllegalStateException("Acknowledgements are only supported by connections with a single destination.");
+		
+		this.packetConnection.setIsAcknowledgementEnabled(isAcknowledgementEnabled);
+	}
+	public boolean isAcknowledgementsEnabled() {
+		return this.packetConnection.getIsAcknowledgementEnabled();
+	}
+	/**
+	 * Sets whether the size of data packets is adapted to the measured throughput of the underlying connection. Enabled by default.
+	 * If disabled, the packet size recommended by the module's connection is used.
+	 * */
+	public void setAdaptivePacketSizingEnabled(boolean isAdaptivePacketSizingEnabled) {
+		this.packetConnection.setIsAdaptivePacketSizingEnabled(isAdaptivePacketSizingEnabled);
+	}
+	public boolean isAdaptivePacketSizingEnabled() {
+		return this.packetConnection.getIsAdaptivePacketSizingEnabled();
+	}
+	/**
+	 * Sets the number of bytes the remote peer may send on this connection before they were passed to the onData, onTransfer or transfer handlers.
+	 * Once the limit is reached, the remote peer stops sending transfer data until the received data was handled, so that a slow receiver
+	 * does not accumulate an unbounded amount of received data. Data that a transfer buffers until it is requested (see InTransfer.requestData) counts 
+	 * towards the limit. The default is 4MB. The remote peer needs to support flow control; older versions are not limited.
+	 * */
+	public void setReceiveBufferLimit(int receiveBufferLimit) {
+		this.transferProcessor.setReceiveWindow(receiveBufferLimit);
+	}
+	public int getReceiveBufferLimit() {
+		return this.transferProcessor.getReceiveWindow();
+	}
+
 	/**
 	 * Closes this connection.
 	 * */
@@ -151,9 +264,59 @@ public class Connection {
 	 * @param data The data to be sent.
 	 */
 	public OutTransfer send(ByteBuffer data) {
+		return this.send(data, OutTransfer.DEFAULT_PRIORITY, OutTransfer.DEFAULT_WEIGHT);
+	}
+	/**
+	 * Sends data with a given priority and weight.
+	 * 
+	 * @param data The data to be sent.
+	 * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+	 * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+	 */
+	public OutTransfer send(ByteBuffer data, int priority, int weight) {
 		DefaultDataSource dataSource = new DefaultDataSource(data);
 		
-		return this.send(dataSource.getDataLength(), (offset, length) -> dataSource.getData(offset, length));
+		return this.send(dataSource.getDataLength(), (offset, length) -> dataSource.getData(offset, length), priority, weight);
+	}
+	/**
+	 * Sends a small message. Messages up to the maximum message length are sent in a single packet and passed to the remote peer's onData handler directly, 
+	 * which avoids the overhead of a transfer. Since no OutTransfer is created, there is no way to follow the message's progress or to cancel it.
+	 * Messages are sent ahead of any further data of transfers that are in progress. Longer data is sent as a regular transfer.
+	 * The remote peer needs to support messages; older versions only understand transfers.
+	 * 
+	 * @param data The message to be sent.
+	 */
+	public void sendMessage(ByteBuffer data) {
+		if (data.remaining() > this.transferProcessor.getMaximumMessageLength()) {
+			this.send(data);
+		} else {
+			this.transferProcessor.sendMessage(data);
+		}
+	}
+	/**
+	 * Sets the maximum length of messages that sendMessage sends in a single packet.
+	 * */
+	public void setMaximumMessageLength(int maximumMessageLength) {
+		this.transferProcessor.setMaximumMessageLength(maximumMessageLength);
+	}
+	/**
+	 * Opens an output stream whose data is sent as a single transfer. Unlike the other send methods, this does not require the length of the data in advance: 
+	 * data is sent as it is written, and the transfer ends when the stream is closed. Writes block while too much written data is waiting to be sent, 
+	 * so the stream should not be written to from the connection's executor.
+	 * 
+	 * @return An output stream. Its transfer can be obtained with getTransfer.
+	 */
+	public TransferOutputStream openOutputStream() {
+		return this.openOutputStream(OutTransfer.DEFAULT_PRIORITY, OutTransfer.DEFAULT_WEIGHT);
+	}
+	/**
+	 * Opens an output stream whose data is sent as a single transfer with a given priority and weight. See openOutputStream().
+	 * 
+	 * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+	 * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+	 */
+	public TransferOutputStream openOutputStream(int priority, int weight) {
+		return this.transferProcessor.startStream(this.executor, priority, weight);
 	}
 	public static interface DataProvider {
 		ByteBuffer getData(int offset, int length);
@@ -167,6 +330,46 @@ public class Connection {
 	public OutTransfer send(int dataLength, DataProvider dataProvider) {
 		return this.transferProcessor.startTransfer(dataLength, dataProvider);
 	}
+	/**
+	 * Sends data provided piece by piece with a given priority and weight.
+	 * 
+	 * @param dataLength The total length of this transfer.
+	 * @param dataProvider Called when another chunk of data is needed.
+	 * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+	 * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+	 */
+	public OutTransfer send(int dataLength, DataProvider dataProvider, int priority, int weight) {
+		return this.transferProcessor.startTransfer(dataLength, dataProvider, priority, weight);
+	}
+	/**
+	 * Sends a file. If the connection's first hop is a direct socket connection (e.g. a WlanConnection), the file's data is transferred to the socket 
+	 * by the operating system, without being copied into memory; otherwise, it is read in chunks of one packet each into pooled buffers.
+	 * The file is kept open until the transfer ended, and may not be modified in the meantime.
+	 * 
+	 * @param path The file to send. Its size may not exceed Integer.MAX_VALUE bytes.
+	 */
+	public OutTransfer sendFile(Path path) throws IOException {
+		return this.sendFile(path, OutTransfer.DEFAULT_PRIORITY, OutTransfer.DEFAULT_WEIGHT);
+	}
+	/**
+	 * Sends a file with a given priority and weight.
+	 * 
+	 * @param path The file to send. Its size may not exceed Integer.MAX_VALUE bytes.
+	 * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+	 * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+	 */
+	public OutTransfer sendFile(Path path, int priority, int weight) throws IOException {
+		if (path == null) throw new IllegalArgumentException("path may not be null");
+		
+		FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+		long size = fileChannel.size();
+		if (size > Integer.MAX_VALUE) {
+			fileChannel.close();
+			throw new IllegalArgumentException("Files larger than "+Integer.MAX_VALUE+" bytes can not be sent in a single transfer.");
+		}
+		
+		return this.transferProcessor.startFileTransfer(fileChannel, (int)size, priority, weight);
+	}
 	
 	private void notifyTransferStarted(InTransfer transfer) {
 		if (this.incomingTransferStartedHandler != null) {
@@ -177,6 +380,21 @@ public class Connection {
 			System.err.println("You need to set either onTransfer or onData on connection "+this);
 		}
 	}
+	private boolean notifyMessageReceived(ByteBuffer data) {
+		// Users who receive transfers expect every message to arrive as a transfer.
+		if (this.incomingTransferStartedHandler != null) return false;
+		
+		if (this.dataHandler != null) {
+			this.dataHandler.onData(this, data);
+		} else {
+			System.err.println("You need to set either onTransfer or onData on connection "+this);
+		}
+		
+		return true;
+	}
+	private void notifyWritabilityChanged() {
+		if (this.writabilityHandler != null) this.writabilityHandler.onWritabilityChanged(this);
+	}
 	private void notifyConnect() {
 		this.isConnected = true;
 		if (this.connectHandler != null) this.connectHandler.onConnect(this);
@@ -220,4 +438,10 @@ public class Connection {
 	public void setOnError(ErrorHandler errorHandler) {
 		this.errorHandler = errorHandler;
 	}
+	public WritabilityHandler getOnWritabilityChanged() {
+		return this.writabilityHandler;
+	}
+	public void setOnWritabilityChanged(WritabilityHandler writabilityHandler) {
+		this.writabilityHandler = writabilityHandler;
+	}
 }
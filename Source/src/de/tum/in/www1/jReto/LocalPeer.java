@@ -292,7 +292,12 @@ public class LocalPeer {
 					connection.close();
 					return;
 				}
-				LocalPeer.this.handleConnection(node, connection, handshake.connectionIdentifier);
+				if (!handshake.hasRequiredCapabilities()) {
+					System.err.println("The remote peer uses an incompatible protocol version (capabilities: "+handshake.capabilities+"), closing connection.");
+					connection.close();
+					return;
+				}
+				LocalPeer.this.handleConnection(node, connection, handshake.connectionIdentifier, handshake.hasCapability(ManagedConnectionHandshake.CAPABILITY_ACKNOWLEDGEMENTS));
 			}
 		}, new SinglePacketHelper.OnFailHandler() {
 			@Override
@@ -308,8 +313,9 @@ public class LocalPeer {
 	 * @param node The node which established the connection
 	 * @param connection The connection that was established
 	 * @param connectionIdentifier The identifier of the connection
+	 * @param isAcknowledgementEnabled Whether the establishing peer announced acknowledgements, in which case they are enabled for the connection's packets as well.
 	 * */
-	private void handleConnection(Node node, de.tum.in.www1.jReto.module.api.Connection connection, UUID connectionIdentifier) {
+	private void handleConnection(Node node, de.tum.in.www1.jReto.module.api.Connection connection, UUID connectionIdentifier, boolean isAcknowledgementEnabled) {
 		boolean needsToReportPeer = this.knownPeers.get(node) == null;
 		RemotePeer peer = this.providePeerForNode(node);
 		
@@ -318,9 +324,11 @@ public class LocalPeer {
 		PacketConnection packetConnection = this.incomingConnections.get(connectionIdentifier);
 		
 		if (packetConnection != null) {
+			if (isAcknowledgementEnabled) packetConnection.setIsAcknowledgementEnabled(true);
 			packetConnection.swapUnderlyingConnection(connection);
 		} else {
 			packetConnection = new PacketConnection(connection, connectionIdentifier, new HashSet<>(Arrays.asList(peer.getNode())));
+			packetConnection.setIsAcknowledgementEnabled(isAcknowledgementEnabled);
 			this.incomingConnections.put(connectionIdentifier, packetConnection);
 			Connection transferConnection = new Connection(packetConnection, this.localPeerIdentifier, this.executor, false, this.packetConnectionManager);
 			
@@ -346,7 +354,10 @@ public class LocalPeer {
 		this.router.establishMulticastConnection( packetConnection.getDestinations(), new Router.OnConnectionHandler() {
 			@Override
 			public void onConnect(final de.tum.in.www1.jReto.module.api.Connection connection) {
-				SinglePacketHelper.write(connection, new ManagedConnectionHandshake(packetConnection.getConnectionIdentifier()), new SinglePacketHelper.OnSuccessHandler() {
+				int capabilities = ManagedConnectionHandshake.SUPPORTED_CAPABILITIES;
+				if (packetConnection.getIsAcknowledgementEnabled()) capabilities |= ManagedConnectionHandshake.CAPABILITY_ACKNOWLEDGEMENTS;
+				
+				SinglePacketHelper.write(connection, new ManagedConnectionHandshake(packetConnection.getConnectionIdentifier(), capabilities), new SinglePacketHelper.OnSuccessHandler() {
 					@Override
 					public void onSuccess() {						
 						packetConnection.swapUnderlyingConnection(connection);
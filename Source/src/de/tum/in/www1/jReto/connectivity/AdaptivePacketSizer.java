@@ -0,0 +1,95 @@
+package de.tum.in.www1.jReto.connectivity;
+
+/**
+* An AdaptivePacketSizer chooses the size of data packets based on how long the underlying connection takes to send them.
+*
+* The sizer estimates the connection's throughput from the time it takes to send each packet, and chooses a packet size that takes roughly a target time to send.
+* On a fast connection, this results in large packets, which reduce the per-packet overhead of bulk transfers; on a slow or congested connection, 
+* it results in small packets, so that packets of other transfers (e.g. interactive messages) do not need to wait long for the connection.
+*
+* The packet size is kept within the bounds supported by the underlying connection, and changes by at most a factor of two per sent packet.
+*/
+public class AdaptivePacketSizer {
+    /** The default time sending a single packet should take, in nanoseconds. */
+	public static final long DEFAULT_TARGET_SEND_TIME = 10*1000*1000;
+    /** The packet size used if no underlying connection is available. */
+	public static final int DEFAULT_PACKET_SIZE = 1024;
+    /** The weight of a new throughput sample in the throughput estimate. */
+	private static final double SMOOTHING_FACTOR = 0.25;
+
+    /** The current packet size. */
+	private int packetSize;
+	private int minimumPacketSize;
+	private int maximumPacketSize;
+    /** The time sending a single packet should take, in nanoseconds. */
+	private long targetSendTime = DEFAULT_TARGET_SEND_TIME;
+    /** The estimated throughput in bytes per second, or 0 if no estimate is available. */
+	private double throughput = 0;
+	
+    /**
+    * Constructs a new AdaptivePacketSizer.
+    * 
+    * @param initialPacketSize The packet size used until the first packets were sent.
+    * @param minimumPacketSize The smallest packet size that may be chosen.
+    * @param maximumPacketSize The largest packet size that may be chosen.
+    */
+	public AdaptivePacketSizer(int initialPacketSize, int minimumPacketSize, int maximumPacketSize) {
+		this.reset(initialPacketSize, minimumPacketSize, maximumPacketSize);
+	}
+	
+    /** Discards the throughput estimate and starts over with new bounds, e.g. after the underlying connection changed. */
+	public void reset(int initialPacketSize, int minimumPacketSize, int maximumPacketSize) {
+		if (minimumPacketSize < 1) throw new IllegalArgumentException("minimumPacketSize needs to be at least 1");
+		if (maximumPacketSize < minimumPacketSize) throw new IllegalArgumentException("maximumPacketSize may not be smaller than minimumPacketSize");
+		
+		this.minimumPacketSize = minimumPacketSize;
+		this.maximumPacketSize = maximumPacketSize;
+		this.packetSize = this.clamp(initialPacketSize);
+		this.throughput = 0;
+	}
+	
+	public int getPacketSize() {
+		return this.packetSize;
+	}
+	public int getMinimumPacketSize() {
+		return this.minimumPacketSize;
+	}
+	public int getMaximumPacketSize() {
+		return this.maximumPacketSize;
+	}
+    /** The estimated throughput in bytes per second, or 0 if no estimate is available. */
+	public double getThroughput() {
+		return this.throughput;
+	}
+	public long getTargetSendTime() {
+		return this.targetSendTime;
+	}
+    /** Sets the time sending a single packet should take, in nanoseconds. */
+	public void setTargetSendTime(long targetSendTime) {
+		if (targetSendTime <= 0) throw new IllegalArgumentException("targetSendTime needs to be positive");
+		
+		this.targetSendTime = targetSendTime;
+	}
+	
+    /**
+    * Called when a packet was sent. Packets that are much smaller than the current packet size (e.g. control packets) are ignored, since their send time 
+    * is dominated by fixed overhead rather than by the connection's throughput.
+    * 
+    * @param length The packet's length in bytes.
+    * @param sendTime The time it took to send the packet in nanoseconds, not including the time it waited for previous packets to be sent.
+    */
+	public void onPacketSent(int length, long sendTime) {
+		if (sendTime <= 0 || length < this.packetSize / 2) return;
+		
+		double sample = length * 1e9 / sendTime;
+		this.throughput = this.throughput == 0 ? sample : this.throughput + SMOOTHING_FACTOR * (sample - this.throughput);
+		
+		long idealPacketSize = (long)(this.throughput * this.targetSendTime / 1e9);
+		long packetSize = Math.max(this.packetSize / 2, Math.min((long)this.packetSize * 2, idealPacketSize));
+		this.packetSize = this.clamp(packetSize);
+	}
+	
+	private int clamp(long packetSize) {
+		return (int)Math.max(this.minimumPacketSize, Math.min(this.maximumPacketSize, packetSize));
+	}
+}
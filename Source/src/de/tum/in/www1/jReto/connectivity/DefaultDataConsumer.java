@@ -2,13 +2,19 @@ package de.tum.in.www1.jReto.connectivity;
 
 import java.nio.ByteBuffer;
 
+/**
+* Collects the data of a transfer in a single buffer. If the transfer's length is unknown (see Transfer.UNKNOWN_LENGTH), the buffer grows as data is consumed.
+*/
 public class DefaultDataConsumer {
-	private final ByteBuffer data;
+    /** The initial capacity used if the length is unknown. */
+	private static final int INITIAL_CAPACITY = 4096;
+	
+	private ByteBuffer data;
 	private final int length;
 	
 	public DefaultDataConsumer(int length) {
 		this.length = length;
-		this.data = ByteBuffer.allocate(length);
+		this.data = ByteBuffer.allocate(length == Transfer.UNKNOWN_LENGTH ? INITIAL_CAPACITY : length);
 	}
 	
 	public int getDataLength() {
@@ -16,12 +22,20 @@ public class DefaultDataConsumer {
 	}
 
 	public void consume(ByteBuffer data) {
-		if (this.data.remaining() < data.remaining()) throw new IllegalArgumentException("data contains "+data.remaining()+" additional bytes, can consume "+this.data.remaining()+" bytes maximum.");
+		if (this.data.remaining() < data.remaining()) {
+			if (this.length != Transfer.UNKNOWN_LENGTH) throw new IllegalArgumentException("data contains "+data.remaining()+" additional bytes, can consume "+this.data.remaining()+" bytes maximum.");
+			
+			ByteBuffer grownData = ByteBuffer.allocate(Math.max(this.data.capacity() * 2, this.data.position() + data.remaining()));
+			this.data.flip();
+			grownData.put(this.data);
+			this.data = grownData;
+		}
 		this.data.put(data);
 	}
 	
 	public ByteBuffer getData() {
-		this.data.rewind();
-		return this.data;
+		ByteBuffer result = this.data.duplicate();
+		result.flip();
+		return result;
 	}
 }
@@ -0,0 +1,59 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+* Writes the data of an incoming transfer to a file. Each piece of data is written at its offset in the transfer using a positional write,
+* so no buffer for the whole transfer is allocated.
+*
+* A FileDataSink either opens the file itself, in which case it closes it when the transfer ended, or writes to a file channel that is 
+* owned by the caller, starting at a given position.
+*/
+public class FileDataSink implements InTransfer.DataSink {
+	private final FileChannel fileChannel;
+    /** The position in the file at which the transfer's first byte is written. */
+	private final long position;
+    /** Whether the file channel is closed when the transfer ended. */
+	private final boolean isClosedOnEnd;
+	
+    /**
+    * Creates a FileDataSink that writes to a file. The file is created if it does not exist, and truncated otherwise.
+    * 
+    * @param path The file to write to.
+    */
+	public FileDataSink(Path path) throws IOException {
+		this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 0, true);
+	}
+    /**
+    * Creates a FileDataSink that writes to a file channel. The channel is not closed when the transfer ended.
+    * 
+    * @param fileChannel The channel to write to.
+    * @param position The position at which the transfer's first byte is written.
+    */
+	public FileDataSink(FileChannel fileChannel, long position) {
+		this(fileChannel, position, false);
+	}
+	private FileDataSink(FileChannel fileChannel, long position, boolean isClosedOnEnd) {
+		if (fileChannel == null) throw new IllegalArgumentException("fileChannel may not be null");
+		if (position < 0) throw new IllegalArgumentException("position may not be negative");
+		
+		this.fileChannel = fileChannel;
+		this.position = position;
+		this.isClosedOnEnd = isClosedOnEnd;
+	}
+	
+	@Override
+	public void write(ByteBuffer data, long offset) throws IOException {
+		long position = this.position + offset;
+		
+		while (data.hasRemaining()) position += this.fileChannel.write(data, position);
+	}
+	@Override
+	public void end(boolean isCompleted) throws IOException {
+		if (this.isClosedOnEnd) this.fileChannel.close();
+	}
+}
@@ -0,0 +1,61 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import de.tum.in.www1.jReto.connectivity.packet.DataPacket;
+import de.tum.in.www1.jReto.connectivity.packet.FileDataPacket;
+import de.tum.in.www1.jReto.niotools.FileRegion;
+import de.tum.in.www1.jReto.packet.Packet;
+
+/**
+* A FileOutTransfer is an OutTransfer whose data is read from a file. Its packets refer to regions of the file instead of carrying the data, 
+* so that connections that support it can send the data straight from the file without copying it into memory.
+*
+* The transfer owns the file channel. It is closed once the transfer ended and all of its packets released their file regions.
+*/
+public class FileOutTransfer extends OutTransfer {
+	private final FileChannel fileChannel;
+    /** The number of file regions that were handed out in packets and not yet released. */
+	private int unreleasedRegionCount = 0;
+	
+	public FileOutTransfer(TransferManager transferManager, FileChannel fileChannel, int length, int identifier, int priority, int weight) {
+		super(transferManager, length, null, identifier, priority, weight);
+		if (fileChannel == null) throw new IllegalArgumentException("fileChannel may not be null");
+		
+		this.fileChannel = fileChannel;
+	}
+	
+	@Override
+	Packet nextPacket(int length) {
+		int dataLength = length - DataPacket.MINIMUM_LENGTH;
+		
+		dataLength = Math.min(Math.min(this.getLength() - this.getProgress(), this.getAvailableCredit()), dataLength);
+		FileRegion fileRegion = new FileRegion(this.fileChannel, this.getProgress(), dataLength, this::onRegionReleased);
+		this.unreleasedRegionCount++;
+		
+		this.updateProgress(dataLength);
+		
+		return new FileDataPacket(this.getIdentifier(), fileRegion);
+	}
+	
+	private void onRegionReleased() {
+		this.unreleasedRegionCount--;
+		this.closeIfUnused();
+	}
+	@Override
+	void confirmEnd() {
+		super.confirmEnd();
+		this.closeIfUnused();
+	}
+	private void closeIfUnused() {
+		if (this.unreleasedRegionCount != 0 || !(this.getIsCompleted() || this.getIsCancelled()) || !this.fileChannel.isOpen()) return;
+		
+		try {
+			this.fileChannel.close();
+		} catch (IOException e) {
+			System.err.println("Could not close the file of a transfer.");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import de.tum.in.www1.jReto.connectivity.packet.WindowUpdatePacket;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* The FlowController limits how much transfer data a PacketConnection's remote side may send before the local side processed it.
+*
+* As a receiver, it counts the data that was processed, i.e. passed to the application (or discarded), and announces a receive window using WindowUpdatePackets: 
+* the remote side may send data up to the processed length plus the window size. Since data is only processed as fast as the application handles it, 
+* a slow application throttles the sender instead of letting received data pile up in the executor's queue. Data that a demand-driven InTransfer buffers
+* until it is requested is not processed yet, so it keeps occupying the window.
+*
+* As a sender, it tracks the data sent and the limit announced by the remote side. Sending is not limited until the first window was announced, 
+* so that peers that do not announce windows are not affected. Windows announced by several receivers of a multicast connection can not be told apart, 
+* so sending is only limited on connections with a single destination.
+*
+* If the underlying connection is swapped without acknowledgements, data may be lost and resent; the receiver then announces a reset window, 
+* upon which the sender considers all data it sent to be processed.
+*/
+public class FlowController implements PacketConnection.Handler {
+    /** The default receive window in bytes. */
+	public static final int DEFAULT_RECEIVE_WINDOW = 4*1024*1024;
+	
+	private final PacketConnection packetConnection;
+	
+    /** The number of bytes the remote side may send beyond the processed length. */
+	private int receiveWindow = DEFAULT_RECEIVE_WINDOW;
+    /** The total length of the received data that was processed. */
+	private int processedLength = 0;
+    /** The processed length that was last announced to the remote side. */
+	private int announcedProcessedLength = 0;
+    /** Whether a window was announced since the FlowController was created. */
+	private boolean hasAnnouncedWindow = false;
+	
+    /** Whether the remote side announced a window, i.e. whether sending is limited. */
+	private boolean isSendingLimited = false;
+    /** The total length of the data that was sent. */
+	private int sentLength = 0;
+    /** The total length of data that may be sent according to the remote side's window. */
+	private int sendLimit = 0;
+	
+	public FlowController(PacketConnection packetConnection) {
+		this.packetConnection = packetConnection;
+		this.packetConnection.addDelegate(this);
+		
+		if (this.packetConnection.getIsConnected()) this.announceWindow(false);
+	}
+	
+	public int getReceiveWindow() {
+		return this.receiveWindow;
+	}
+    /** Sets the number of bytes the remote side may send before the local side processed them. */
+	public void setReceiveWindow(int receiveWindow) {
+		if (receiveWindow < 1) throw new IllegalArgumentException("receiveWindow needs to be at least 1");
+		
+		this.receiveWindow = receiveWindow;
+		if (this.packetConnection.getIsConnected()) this.announceWindow(false);
+	}
+    /** Whether the remote side announced a window that limits sending. */
+	public boolean getIsSendingLimited() {
+		return this.isSendingLimited;
+	}
+    /** The number of bytes that may be sent before the remote side needs to process more data. */
+	public int getAvailableSendLength() {
+		if (!this.isSendingLimited) return Integer.MAX_VALUE;
+		
+		// The lengths may wrap around, but their difference does not.
+		return Math.max(0, this.sendLimit - this.sentLength);
+	}
+    /** Called when data was sent. */
+	public void onDataSent(int length) {
+		this.sentLength += length;
+	}
+    /** Called when received data was processed. Announces a new window once half of the previous one was used. */
+	public void onDataProcessed(int length) {
+		this.processedLength += length;
+		
+		if (this.processedLength - this.announcedProcessedLength >= this.receiveWindow / 2) this.announceWindow(false);
+	}
+	
+	private void announceWindow(boolean isReset) {
+		this.announcedProcessedLength = this.processedLength;
+		this.hasAnnouncedWindow = true;
+		this.packetConnection.writePacket(new WindowUpdatePacket(this.processedLength, this.receiveWindow, isReset));
+	}
+	private void handleWindowUpdate(WindowUpdatePacket windowUpdate) {
+		if (windowUpdate == null) {
+			System.err.println("Received invalid packet.");
+			return;
+		}
+		if (this.packetConnection.getDestinations().size() > 1) return;
+		
+		if (windowUpdate.isReset) this.sentLength = windowUpdate.processedLength;
+		this.sendLimit = windowUpdate.processedLength + windowUpdate.windowSize;
+		this.isSendingLimited = true;
+		
+		this.packetConnection.write();
+	}
+	
+	@Override
+	public Set<PacketType> getHandledPacketTypes() {
+		Set<PacketType> types = new HashSet<>();
+		types.add(PacketType.WINDOW_UPDATE);
+		return types;
+	}
+	@Override
+	public void handlePacket(ByteBuffer data, PacketType type) {
+		switch (type) {
+			case WINDOW_UPDATE: this.handleWindowUpdate(WindowUpdatePacket.deserialize(data)); break;
+			default: throw new IllegalArgumentException("Invalid type: "+type);
+		}
+	}
+	@Override
+	public void onUnderlyingConnectionConnected(PacketConnection connection) {
+		// Without acknowledgements, data that was received on the previous underlying connection may have been lost.
+		this.announceWindow(this.hasAnnouncedWindow && !this.packetConnection.getIsReceivingSequencedPackets());
+	}
+	@Override
+	public void onUnderlyingConnectionClose(PacketConnection connection) {}
+	@Override
+	public void onWillSwapUnderlyingConnection(PacketConnection connection) {}
+	@Override
+	public void onNoPacketsLeft(PacketConnection connection) {}
+	@Override
+	public void onUnderlyingConnectionWritabilityChanged(PacketConnection connection) {}
+}
@@ -1,7 +1,9 @@
 package de.tum.in.www1.jReto.connectivity;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.UUID;
+import java.util.ArrayDeque;
+import java.util.Queue;
 /**
 * An InTransfer represents a data transfer from a remote peer to the local peer. The connection class generates InTransfer instances when a remote peer sends data.
 * 
@@ -9,6 +11,14 @@ import java.util.UUID;
 * 
 * - onCompleteData: Called when the transfer completes with the full data received. Buffers the data in memory until the transfer is complete. Alternative to onPartialData. If both are set, onPartialData is used.
 * - onPartialData: Called whenever data is received. This method may be called multiple times, i.e. the data is not the full transfer. Exclusive alternative to onCompleteData.
+*
+* Alternatively, the data can be written to a DataSink (see setDataSink), e.g. a FileDataSink or a MappedFileDataSink. Each piece of data is written at its offset 
+* in the transfer, and none of it is buffered in memory, which allows receiving transfers that are larger than the heap. If a data sink is set, the handlers are not called.
+* Should the sink fail to write data, the transfer is cancelled.
+*
+* By default, data is passed to the handlers as soon as it is received. A receiver that processes data slowly can instead consume the transfer on demand 
+* by calling requestData: data is then only passed to the handlers as far as it was requested, and the sender is granted credit to send just the requested data.
+* Data the sender sent before it received the first credit is buffered until it is requested. The transfer completes once all of its data was passed to the handlers.
 */
 public class InTransfer extends Transfer {
 	public static interface CompleteDataHandler {
@@ -17,47 +27,180 @@ public class InTransfer extends Transfer {
 	public static interface PartialDataHandler {
 		void onPartialData(InTransfer transfer, ByteBuffer data);
 	}
+	/** 
+	* A DataSink stores the data of a transfer as it is received. 
+	*/
+	public static interface DataSink {
+	    /** 
+	    * Writes a piece of data.
+	    * 
+	    * @param data The data. It is only valid during this call.
+	    * @param offset The offset of the data's first byte in the transfer.
+	    */
+		void write(ByteBuffer data, long offset) throws IOException;
+	    /** Called once when the transfer ended. No more data is written afterwards. */
+		void end(boolean isCompleted) throws IOException;
+	}
 	
 	private CompleteDataHandler completeDataHandler;
 	private PartialDataHandler partialDataHandler;
 	private DefaultDataConsumer defaultDataConsumer;
+	private DataSink dataSink;
+    /** Whether the data sink failed to write data. Further data is discarded, and the transfer can not complete successfully. */
+	private boolean isDataSinkFailed = false;
+    /** Whether the transfer was cancelled because the data sink failed. */
+	private boolean isCancelRequested = false;
+	
+    /** Whether data is only passed to the handlers when it was requested. */
+	private boolean isDemandDriven = false;
+    /** The number of bytes passed to the handlers so far. */
+	private int deliveredLength = 0;
+    /** The number of bytes that were requested, but not yet passed to the handlers. */
+	private int demand = 0;
+    /** Received data that was not yet requested. */
+	private final Queue<ByteBuffer> undeliveredData = new ArrayDeque<>();
+    /** Whether all data was received, but the transfer's completion is deferred until the remaining data was requested. */
+	private boolean isCompletionPending = false;
 	
-	public InTransfer(TransferManager transferManager, int lenght, UUID identifier) {
+	public InTransfer(TransferManager transferManager, int lenght, int identifier) {
 		super(transferManager, lenght, identifier);
 	}
 	
 	void updateWithReceivedData(final ByteBuffer data) {
 		int dataLength = data.remaining();
+		
+		if (this.isDemandDriven) {
+			this.undeliveredData.add(data);
+			this.deliverRequestedData();
+		} else {
+			this.deliver(data);
+		}
+		
+		this.updateProgress(dataLength);
+		this.cancelIfDataSinkFailed();
+	}
+    /**
+    * Requests more data of this transfer. Switches the transfer to demand-driven consumption if it was not yet demand-driven: from then on, data is only passed
+    * to the handlers as far as it was requested, and the sender only sends requested data. Demand accumulates over multiple calls.
+    * Needs to be called on the connection's executor; ideally, the first call happens in the onTransfer event.
+    * 
+    * @param length The number of additional bytes requested.
+    */
+	public void requestData(int length) {
+		if (length <= 0) throw new IllegalArgumentException("length needs to be positive");
+		
+		this.isDemandDriven = true;
+		this.demand = (int)Math.min(Integer.MAX_VALUE - this.deliveredLength, (long)this.demand + length);
+		this.deliverRequestedData();
+		this.cancelIfDataSinkFailed();
+		
+		if (!this.getIsCompleted() && !this.getIsCancelled()) this.getTransferManager().grantCredit(this, this.deliveredLength + this.demand);
+	}
+	public boolean getIsDemandDriven() {
+		return this.isDemandDriven;
+	}
+    /** Passes buffered data to the handlers as far as it was requested. */
+	private void deliverRequestedData() {
+		while (this.demand != 0 && !this.undeliveredData.isEmpty()) {
+			ByteBuffer head = this.undeliveredData.peek();
+			ByteBuffer data = head.duplicate();
+			
+			if (head.remaining() > this.demand) {
+				data.limit(data.position() + this.demand);
+				head.position(data.limit());
+			} else {
+				this.undeliveredData.poll();
+			}
+			
+			this.demand -= data.remaining();
+			this.deliver(data);
+		}
+		
+		if (this.isCompletionPending && this.undeliveredData.isEmpty()) {
+			this.isCompletionPending = false;
+			this.confirmCompletion();
+		}
+	}
+	private void deliver(ByteBuffer data) {
+		int offset = this.deliveredLength;
+		int length = data.remaining();
+		this.deliveredLength += length;
 
-		if (this.partialDataHandler != null) {
+		if (this.dataSink != null) {
+			// Once the sink failed, further data is discarded.
+			if (!this.isDataSinkFailed) this.writeToDataSink(data, offset);
+		} else if (this.partialDataHandler != null) {
 			this.partialDataHandler.onPartialData(this, data);
 		} else if (this.completeDataHandler != null) {
-			if (this.defaultDataConsumer == null) {
-				this.defaultDataConsumer = new DefaultDataConsumer(this.getLength());
-			}
-			this.defaultDataConsumer.consume(data);
+			this.getDefaultDataConsumer().consume(data);
 		} else {
 			System.err.println("You need to set either onCompleteData or onPartialData on incoming transfers (affected instance: "+this);
 		}
 		
-		this.updateProgress(dataLength);
+		this.getTransferManager().confirmDataProcessed(this, length);
+	}
+	private void writeToDataSink(ByteBuffer data, int offset) {
+		try {
+			this.dataSink.write(data, offset);
+		} catch (IOException e) {
+			System.err.println("The data sink of an incoming transfer failed to write data. Cancelling the transfer.");
+			e.printStackTrace();
+			this.isDataSinkFailed = true;
+		}
 	}
 
 	public void cancel() {
 		InTransfer.this.getTransferManager().cancelTransfer(InTransfer.this);
 	}
+    /** Cancels the transfer once its data sink failed, since the data that could not be written is lost. */
+	private void cancelIfDataSinkFailed() {
+		if (!this.isDataSinkFailed || this.isCancelRequested || this.getIsCompleted() || this.getIsCancelled()) return;
+		
+		this.isCancelRequested = true;
+		this.cancel();
+	}
 	
 	void confirmEnd() {
 		this.defaultDataConsumer = null;
+		// Data that was never requested is discarded, so it no longer occupies the receive window.
+		int discardedLength = 0;
+		for (ByteBuffer data : this.undeliveredData) discardedLength += data.remaining();
+		this.undeliveredData.clear();
+		if (discardedLength != 0) this.getTransferManager().confirmDataProcessed(this, discardedLength);
+		
+		if (this.dataSink != null) {
+			try {
+				this.dataSink.end(this.getIsCompleted());
+			} catch (IOException e) {
+				System.err.println("The data sink of an incoming transfer failed to end.");
+				e.printStackTrace();
+			}
+		}
 		
 		super.confirmEnd();
 	}
 	void confirmCompletion() {
-		if (this.completeDataHandler != null) this.completeDataHandler.onData(this, this.defaultDataConsumer.getData());
+		if (!this.undeliveredData.isEmpty()) {
+			this.isCompletionPending = true;
+			return;
+		}
+		if (this.isDataSinkFailed) {
+			this.confirmCancel();
+			return;
+		}
+		
+		// A transfer without any data, e.g. an empty stream, completes without a data consumer having been created.
+		// If the data was passed to a data sink or to onPartialData, it was not collected for onCompleteData.
+		if (this.completeDataHandler != null && this.dataSink == null && this.partialDataHandler == null) this.completeDataHandler.onData(this, this.getDefaultDataConsumer().getData());
 
 		super.confirmCompletion();
 	}
 	
+	private DefaultDataConsumer getDefaultDataConsumer() {
+		if (this.defaultDataConsumer == null) this.defaultDataConsumer = new DefaultDataConsumer(this.getLength());
+		
+		return this.defaultDataConsumer;
+	}
 	public CompleteDataHandler getOnCompleteData() {
 		return this.completeDataHandler;
 	}
@@ -72,4 +215,11 @@ public class InTransfer extends Transfer {
 	public void setOnPartialData(PartialDataHandler partialDataHandler) {
 		this.partialDataHandler = partialDataHandler;
 	}
+	public DataSink getDataSink() {
+		return this.dataSink;
+	}
+	/** Sets the data sink the transfer's data is written to. Should be set in the onTransfer event, before any data was received. */
+	public void setDataSink(DataSink dataSink) {
+		this.dataSink = dataSink;
+	}
 }
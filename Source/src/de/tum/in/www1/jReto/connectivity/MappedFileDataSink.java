@@ -0,0 +1,48 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+* Writes the data of an incoming transfer into a memory-mapped file. The file is mapped once with the transfer's length, and each piece of data
+* is copied into the mapping at its offset in the transfer; the operating system writes the mapped pages to the file. 
+* This requires the transfer's length to be known in advance (i.e. the transfer may not be a stream).
+*
+* The mapped data is forced to the file when the transfer completes. Note that the mapping is only released once it was garbage collected.
+*/
+public class MappedFileDataSink implements InTransfer.DataSink {
+	private final MappedByteBuffer mappedData;
+	
+    /**
+    * Creates a MappedFileDataSink that writes to a file. The file is created if it does not exist, and resized to the given length.
+    * 
+    * @param path The file to write to.
+    * @param length The length of the transfer, e.g. as returned by InTransfer.getLength.
+    */
+	public MappedFileDataSink(Path path, int length) throws IOException {
+		if (length < 0) throw new IllegalArgumentException("length may not be negative; streamed transfers can not be written to a MappedFileDataSink");
+		
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (fileChannel.size() > length) fileChannel.truncate(length);
+			// The mapping stays valid after the channel was closed.
+			this.mappedData = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+		}
+	}
+	
+	@Override
+	public void write(ByteBuffer data, long offset) throws IOException {
+		if (offset + data.remaining() > this.mappedData.capacity()) throw new IOException("Received more data than the mapped length of "+this.mappedData.capacity()+" bytes.");
+		
+		ByteBuffer target = this.mappedData.duplicate();
+		target.position((int)offset);
+		target.put(data);
+	}
+	@Override
+	public void end(boolean isCompleted) throws IOException {
+		if (isCompleted) this.mappedData.force();
+	}
+}
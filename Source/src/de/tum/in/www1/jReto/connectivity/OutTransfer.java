@@ -1,32 +1,88 @@
 package de.tum.in.www1.jReto.connectivity;
 
 import java.nio.ByteBuffer;
-import java.util.UUID;
 
 import de.tum.in.www1.jReto.Connection.DataProvider;
 import de.tum.in.www1.jReto.connectivity.packet.DataPacket;
+import de.tum.in.www1.jReto.packet.Packet;
 
 /**
 * An OutTransfer represents a data transfer from the local peer to a remote peer. You can obtain one by calling the connection's send method.
+*
+* Each OutTransfer has a priority and a weight. Transfers with a higher priority are always sent before transfers with a lower priority. 
+* Transfers with the same priority share the connection in proportion to their weights.
 */
 public class OutTransfer extends Transfer {
+    /** The priority of transfers that are sent without specifying one. */
+	public static final int DEFAULT_PRIORITY = 0;
+    /** The weight of transfers that are sent without specifying one. */
+	public static final int DEFAULT_WEIGHT = 1;
+    /** The credit limit of transfers whose receiver did not grant credit. Such transfers are sent as fast as possible. */
+	static final int NO_CREDIT_LIMIT = -1;
+	
 	private DataProvider dataSource;
+	private final int priority;
+	private final int weight;
+    /** The offset up to which the receiver requested data, or NO_CREDIT_LIMIT if the receiver did not request data on demand. */
+	private int creditLimit = NO_CREDIT_LIMIT;
+    /** The number of packets sent since this transfer's turn started. Used by the TransferProcessor's scheduler. */
+	int packetsSentInTurn = 0;
 	
-	public OutTransfer(TransferManager transferManager, int dataLenght, DataProvider dataSource, UUID identifier) {
+	public OutTransfer(TransferManager transferManager, int dataLenght, DataProvider dataSource, int identifier) {
+		this(transferManager, dataLenght, dataSource, identifier, DEFAULT_PRIORITY, DEFAULT_WEIGHT);
+	}
+	public OutTransfer(TransferManager transferManager, int dataLenght, DataProvider dataSource, int identifier, int priority, int weight) {
 		super(transferManager, dataLenght, identifier);
+		if (weight < 1) throw new IllegalArgumentException("weight needs to be at least 1");
+		
 		this.dataSource = dataSource;
+		this.priority = priority;
+		this.weight = weight;
 	}
 	
 	public DataProvider getDataSource() {
 		return this.dataSource;
 	}
+    /** The transfer's priority. Transfers with higher priorities are sent first. */
+	public int getPriority() {
+		return this.priority;
+	}
+    /** The transfer's weight, i.e. the number of packets it sends per turn relative to other transfers with the same priority. */
+	public int getWeight() {
+		return this.weight;
+	}
 	
-	DataPacket nextPacket(int length) {
-		int dataLength = length - 4;
+    /** 
+    * Raises the offset up to which data may be sent. The first credit switches the transfer to demand-driven sending. 
+    * If several receivers grant credit for the same transfer, the largest credit applies.
+    */
+	void grantCredit(int creditLimit) {
+		this.creditLimit = Math.max(this.creditLimit, creditLimit);
+	}
+    /** The number of bytes that may be sent before the receiver needs to grant more credit. */
+	int getAvailableCredit() {
+		if (this.creditLimit == NO_CREDIT_LIMIT) return Integer.MAX_VALUE;
+		
+		return Math.max(0, this.creditLimit - this.getProgress());
+	}
+    /** Whether the transfer can send a packet right now. */
+	boolean hasPacketAvailable() {
+		return !this.getIsCompleted() && this.getAvailableCredit() != 0;
+	}
+    /** The number of bytes that were not yet sent, or buffered in case of a stream. */
+	int getUnsentLength() {
+		return this.getLength() - this.getProgress();
+	}
+    /** Whether the transfer can continue from a given progress after it was interrupted. */
+	boolean canResumeAt(int progress) {
+		return true;
+	}
+	Packet nextPacket(int length) {
+		int dataLength = length - DataPacket.MINIMUM_LENGTH;
 		
-		dataLength = Math.min(this.getLength() - this.getProgress(), dataLength);
+		dataLength = Math.min(Math.min(this.getLength() - this.getProgress(), this.getAvailableCredit()), dataLength);
 		ByteBuffer data = this.getDataSource().getData(this.getProgress(), dataLength);
-		DataPacket packet = new DataPacket(data);
+		DataPacket packet = new DataPacket(this.getIdentifier(), data);
 		
 		this.updateProgress(dataLength);
 		
@@ -1,15 +1,31 @@
 package de.tum.in.www1.jReto.connectivity;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
 
+import de.tum.in.www1.jReto.connectivity.packet.AcknowledgementPacket;
+import de.tum.in.www1.jReto.connectivity.packet.BatchPacket;
+import de.tum.in.www1.jReto.connectivity.packet.SequencedPacket;
 import de.tum.in.www1.jReto.module.api.Connection;
+import de.tum.in.www1.jReto.niotools.BufferPool;
+import de.tum.in.www1.jReto.niotools.FileRegion;
+import de.tum.in.www1.jReto.niotools.PooledBuffer;
+import de.tum.in.www1.jReto.niotools.SizeClassBufferPool;
 import de.tum.in.www1.jReto.packet.Packet;
 import de.tum.in.www1.jReto.packet.PacketType;
 import de.tum.in.www1.jReto.routing.Node;
@@ -23,7 +39,32 @@ import de.tum.in.www1.jReto.routing.Node;
 * an underlying connection. This is the basis of features such as automatic reconnect, and offering automatic connection upgrades.
 *
 * Packets can be sent by calling the write() method. If data is currently written, or no underlying connection is available, the packet is buffered
-* until it can be sent. 
+* until it can be sent. Several packets may be handed to the underlying connection before it reports that the first one was sent; the number of packets
+* and bytes in flight is limited by a configurable window. Delegates are asked for more packets as soon as all queued packets are in flight and the 
+* window has room for more, so that the next packet is already available when the underlying connection finishes sending the previous one.
+*
+* Unsent packets are queued in lanes. A packet is only sent if all lanes with a lower index are empty, so that e.g. control packets do not have to wait
+* behind queued bulk data. The lane of a packet is determined by its type; by default, all packets use the control lane. Delegates that send bulk data 
+* can assign their packet types to the bulk lane using setLane.
+*
+* The PacketConnection measures how long the underlying connection takes to send each packet, and adapts its recommended packet size (see getRecommendedPacketSize)
+* to the measured throughput, within the bounds given by the underlying connection's minimum and maximum packet sizes. Packet producers such as the 
+* TransferProcessor use this size for the data packets they create.
+*
+* Packets may refer to file data using a FileRegion (see Packet.getFileRegion). If the underlying connection supports it, the file data is sent 
+* straight from the file; otherwise, it is read into a pooled buffer that is reused once the packet was sent. The PacketConnection releases a packet's FileRegion 
+* once the packet can not be sent again, i.e. once it was sent, acknowledged (if acknowledgements are enabled), or discarded.
+*
+* Optionally, packets that are queued at the same time can be sent in batches. A batch combines as many queued packets as fit into the recommended 
+* packet size into a single BatchPacket, and is unpacked by the receiving PacketConnection before the contained packets are 
+* dispatched to the handlers. Since the remote PacketConnection needs to understand batches, batching is disabled by default.
+*
+* Optionally, sent packets can be acknowledged by the receiver. Each packet is then wrapped in a SequencedPacket and kept in a bounded retransmit buffer 
+* until the receiver acknowledges it with a cumulative AcknowledgementPacket. When the underlying connection is swapped, unacknowledged packets are sent again 
+* on the new underlying connection, and the receiver discards packets it already received. This way, no packets are lost when switching between underlying connections. 
+* Acknowledgements require a single remote PacketConnection, so they may not be used with multicast connections. A PacketConnection that receives 
+* SequencedPackets always acknowledges them; it only sequences its own packets if acknowledgements were enabled for it as well 
+* (the LocalPeer does so when the ManagedConnectionHandshake announces them).
 *
 * A PacketConnection can have multiple delegates. Amongst other events, the PacketConnection delegates the handling of packets to multiple delegates that implement
 * the PacketHandler protocol. The PacketHandlers may specify the packet types they are able to handler; the packet connection will call the according handler's
@@ -34,6 +75,43 @@ import de.tum.in.www1.jReto.routing.Node;
 * e.g. the TransferManager and ReliabilityManager, which are both PacketHandlers.
 */
 public class PacketConnection {
+	/** A packet that was passed to the underlying connection. */
+	private static class PacketInFlight {
+		/** The packet's serialized header. Released once the underlying connection reports that the packet was sent. */
+		final PooledBuffer header;
+		/** The buffer file data was read into, or null. Released together with the header. */
+		final PooledBuffer fileData;
+		/** The file region to release once the packet was sent, or null if the packet has none, or is kept until it is acknowledged. */
+		final FileRegion fileRegion;
+		/** The packet's length, including the payload. */
+		final int length;
+		/** The time at which the packet was passed to the underlying connection, as returned by System.nanoTime(). */
+		final long sendTime;
+		
+		PacketInFlight(PooledBuffer header, PooledBuffer fileData, FileRegion fileRegion, int length, long sendTime) {
+			this.header = header;
+			this.fileData = fileData;
+			this.fileRegion = fileRegion;
+			this.length = length;
+			this.sendTime = sendTime;
+		}
+	}
+	
+	/** The default maximum number of packets that are in flight at the same time. */
+	public static final int DEFAULT_MAXIMUM_PACKETS_IN_FLIGHT = 4;
+	/** The default maximum number of bytes that are in flight at the same time. */
+	public static final int DEFAULT_MAXIMUM_BYTES_IN_FLIGHT = 128*1024;
+	/** The lane for control packets, which are sent before packets in any other lane. */
+	public static final int CONTROL_LANE = 0;
+	/** The lane for packets that carry bulk data. */
+	public static final int BULK_LANE = 1;
+	/** The number of lanes. */
+	public static final int LANE_COUNT = 2;
+	/** The default maximum number of sent packets that are kept until they are acknowledged. No further packets are sent while the retransmit buffer is full. */
+	public static final int DEFAULT_RETRANSMIT_BUFFER_SIZE = 256;
+	/** The number of received SequencedPackets after which an acknowledgement is sent, even if the sender did not request one. */
+	public static final int ACKNOWLEDGEMENT_INTERVAL = 16;
+	
 	/**
 	* The delegate protocol used with the PacketConnection.
 	* It allows delegates to specify which types of packets they wish to handle.
@@ -45,8 +123,10 @@ public class PacketConnection {
 		void onWillSwapUnderlyingConnection(PacketConnection connection);
 	    /** Called when confirmation that the underlying connection did connect is received. */
 		void onUnderlyingConnectionConnected(PacketConnection connection);
-	    /** Called whenever all packets that were queued have been sent, i.e. the connection is ready for more data if available. */
+	    /** Called whenever all packets that were queued have been passed to the underlying connection and the in-flight window has room, i.e. the connection is ready for more data if available. */
 		void onNoPacketsLeft(PacketConnection connection);
+	    /** Called when the underlying connection's writability changed. */
+		void onUnderlyingConnectionWritabilityChanged(PacketConnection connection);
 	    /** An array of packet types that are handled by this PacketHandler. */
 		Set<PacketType> getHandledPacketTypes();
 	    /** Called when a packet is received that should be handled */
@@ -65,10 +145,46 @@ public class PacketConnection {
 	private final UUID connectionIdentifier;
     /** This connection's destinations. */
 	private final Set<Node> destinations;
-    /** Buffer for unsent packets. */
-	private Queue<Packet> unsentPackets;
-    /** Whether a packet is currently being sent. */
-	private boolean isSendingPacket = false;
+    /** Buffers for unsent packets, one per lane. */
+	private final List<Queue<Packet>> unsentPackets = new ArrayList<>(LANE_COUNT);
+    /** The lanes of packet types that do not use the control lane. */
+	private final Map<PacketType, Integer> packetLanes = new EnumMap<>(PacketType.class);
+    /** The pool packet headers are serialized into. Payloads of packets that have one are written without being copied. */
+	private final BufferPool bufferPool;
+    /** The packets that were passed to the underlying connection, in the order they were written. */
+	private final Queue<PacketInFlight> packetsInFlight = new ArrayDeque<>();
+    /** The total length of the packets in flight. */
+	private int bytesInFlight = 0;
+    /** The time at which the underlying connection last reported that a packet was sent, as returned by System.nanoTime(). */
+	private long lastSentTime = 0;
+    /** Chooses the recommended packet size based on the time it takes to send packets. Null if adaptive packet sizing is disabled. */
+	private AdaptivePacketSizer packetSizer;
+    /** The maximum number of packets in flight. */
+	private int maximumPacketsInFlight = DEFAULT_MAXIMUM_PACKETS_IN_FLIGHT;
+    /** The maximum number of bytes in flight. A single packet may exceed it if no other packets are in flight. */
+	private int maximumBytesInFlight = DEFAULT_MAXIMUM_BYTES_IN_FLIGHT;
+    /** Whether write() is currently running. Used to avoid sending recursively when delegates write packets in onNoPacketsLeft. */
+	private boolean isWriting = false;
+    /** Whether queued packets may be combined into BatchPackets. */
+	private boolean isBatchingEnabled = false;
+    /** Whether sent packets are sequenced and kept until they are acknowledged. */
+	private boolean isAcknowledgementEnabled = false;
+    /** The sequence number of the next packet that is sent. */
+	private int nextSequenceNumber = 0;
+    /** Sent packets that were not acknowledged yet, in the order they were sent. */
+	private final Deque<SequencedPacket> unacknowledgedPackets = new ArrayDeque<>();
+    /** Unacknowledged packets that need to be sent again after the underlying connection was swapped. */
+	private final Deque<SequencedPacket> retransmittedPackets = new ArrayDeque<>();
+    /** The maximum number of unacknowledged packets. */
+	private int retransmitBufferSize = DEFAULT_RETRANSMIT_BUFFER_SIZE;
+    /** Whether any SequencedPacket was received. */
+	private boolean isReceivingSequencedPackets = false;
+    /** The sequence number of the next SequencedPacket that is expected to be received. */
+	private int nextExpectedSequenceNumber = 0;
+    /** The number of SequencedPackets received since the last acknowledgement was sent. */
+	private int packetsReceivedSinceAcknowledgement = 0;
+    /** Whether an acknowledgement needs to be sent. */
+	private boolean isAcknowledgementPending = false;
     /** Whether a connection is currently being established. */
 	private boolean isEstablishingConnection = false;
 
@@ -82,15 +198,7 @@ public class PacketConnection {
 				return;
 			}
 
-			PacketType packetType = PacketType.fromData(data);
-			Handler handler = PacketConnection.this.packetHandlers.get(packetType);
-
-			if (handler == null) {
-				System.err.println("Warning: There is no handler for packets of type "+ packetType+ ". Registered handlers: "+ PacketConnection.this.packetHandlers);
-				return;
-			}
-
-			handler.handlePacket(data, packetType);
+			PacketConnection.this.handlePacket(data);
 		}
 
 		@Override
@@ -99,7 +207,25 @@ public class PacketConnection {
 				System.out.println("Received onDataSent from unused underlying connection.");
 				return;
 			}
-			PacketConnection.this.isSendingPacket = false;
+			PacketInFlight sentPacket = PacketConnection.this.packetsInFlight.poll();
+			if (sentPacket == null) {
+				System.err.println("Received unexpected onDataSent call.");
+				return;
+			}
+			
+			sentPacket.header.release();
+			if (sentPacket.fileData != null) sentPacket.fileData.release();
+			if (sentPacket.fileRegion != null) sentPacket.fileRegion.release();
+			PacketConnection.this.bytesInFlight -= sentPacket.length;
+			PacketConnection.this.onPacketSent(sentPacket);
+			PacketConnection.this.write();
+		}
+
+		@Override
+		public void onWritabilityChanged(de.tum.in.www1.jReto.module.api.Connection connection) {
+			if (connection != PacketConnection.this.underlyingConnection) return;
+			
+			PacketConnection.this.delegates.forEach(delegate -> delegate.onUnderlyingConnectionWritabilityChanged(PacketConnection.this));
 			PacketConnection.this.write();
 		}
 
@@ -133,17 +259,113 @@ public class PacketConnection {
     * @param destinations The connection's destinations.
     */
 	public PacketConnection(de.tum.in.www1.jReto.module.api.Connection underlyingConnection, UUID connectionIdentifier, Set<Node> destinations) {
-		this.unsentPackets = new LinkedBlockingQueue<Packet>();
+		this(underlyingConnection, connectionIdentifier, destinations, SizeClassBufferPool.SHARED);
+	}
+    /** 
+    * Initializes a new PacketConnection that serializes packets into buffers acquired from a specific pool.
+    * 
+    * @param connection An underlying connection to use with this packet connection. May be nil and set later.
+    * @param connectionIdentifier This connection's identifier.
+    * @param destinations The connection's destinations.
+    * @param bufferPool The pool packets are serialized into.
+    */
+	public PacketConnection(de.tum.in.www1.jReto.module.api.Connection underlyingConnection, UUID connectionIdentifier, Set<Node> destinations, BufferPool bufferPool) {
+		if (bufferPool == null) throw new IllegalArgumentException("bufferPool may not be null");
+		
+		this.bufferPool = bufferPool;
+		for (int i=0; i<LANE_COUNT; i++) this.unsentPackets.add(new LinkedBlockingQueue<Packet>());
 		this.underlyingConnection = underlyingConnection;
 		this.connectionIdentifier = connectionIdentifier;
 		this.destinations = destinations;
 
+		this.setIsAdaptivePacketSizingEnabled(true);
+
 		if (this.underlyingConnection != null) {
 			this.underlyingConnection.setHandler(this.underlyingConnectionHandler);
 			if (this.underlyingConnection.isConnected()) this.onConnect();
 		}
 	}
 
+	private void handlePacket(ByteBuffer data) {
+		PacketType packetType = PacketType.fromData(data);
+		
+		if (packetType == SequencedPacket.TYPE) {
+			this.handleSequencedPacket(SequencedPacket.deserialize(data));
+			return;
+		}
+		if (packetType == AcknowledgementPacket.TYPE) {
+			this.handleAcknowledgement(AcknowledgementPacket.deserialize(data));
+			return;
+		}
+		if (packetType == BatchPacket.TYPE) {
+			List<ByteBuffer> packets = BatchPacket.deserialize(data);
+			
+			if (packets == null) {
+				System.err.println("Warning: Received an invalid packet batch.");
+				return;
+			}
+			
+			for (ByteBuffer packet : packets) this.handlePacket(packet);
+			return;
+		}
+		
+		Handler handler = this.packetHandlers.get(packetType);
+
+		if (handler == null) {
+			System.err.println("Warning: There is no handler for packets of type "+ packetType+ ". Registered handlers: "+ this.packetHandlers);
+			return;
+		}
+
+		handler.handlePacket(data, packetType);
+	}
+
+	private void handleSequencedPacket(SequencedPacket packet) {
+		if (packet == null) {
+			System.err.println("Warning: Received an invalid sequenced packet.");
+			return;
+		}
+		
+		if (!this.isReceivingSequencedPackets) {
+			this.isReceivingSequencedPackets = true;
+			this.nextExpectedSequenceNumber = packet.sequenceNumber;
+		}
+		
+		// Sequence numbers are compared by their difference, so that they may wrap around.
+		int offset = packet.sequenceNumber - this.nextExpectedSequenceNumber;
+		if (offset < 0) {
+			// The packet was sent again after a swap, but was already received; the sender is missing an acknowledgement.
+			this.isAcknowledgementPending = true;
+			this.write();
+			return;
+		}
+		if (offset > 0) {
+			System.err.println("Warning: Received packet "+packet.sequenceNumber+", but expected "+this.nextExpectedSequenceNumber+". Discarding it until the missing packets are sent again.");
+			return;
+		}
+		
+		this.nextExpectedSequenceNumber++;
+		this.packetsReceivedSinceAcknowledgement++;
+		if (packet.isAcknowledgementRequested || this.packetsReceivedSinceAcknowledgement >= ACKNOWLEDGEMENT_INTERVAL) this.isAcknowledgementPending = true;
+		
+		this.handlePacket(packet.data);
+		if (this.isAcknowledgementPending) this.write();
+	}
+	private void handleAcknowledgement(AcknowledgementPacket acknowledgement) {
+		if (acknowledgement == null) {
+			System.err.println("Warning: Received an invalid acknowledgement.");
+			return;
+		}
+		
+		while (!this.unacknowledgedPackets.isEmpty() && this.unacknowledgedPackets.peek().sequenceNumber - acknowledgement.nextSequenceNumber < 0) {
+			releaseFileRegion(this.unacknowledgedPackets.poll());
+		}
+		while (!this.retransmittedPackets.isEmpty() && this.retransmittedPackets.peek().sequenceNumber - acknowledgement.nextSequenceNumber < 0) {
+			this.retransmittedPackets.poll();
+		}
+		
+		this.write();
+	}
+
 	private void onConnect() {
 		this.delegates.forEach(delegate -> delegate.onUnderlyingConnectionConnected(this));
 
@@ -172,6 +394,108 @@ public class PacketConnection {
 		return this.destinations;
 	}
 
+	public boolean getIsBatchingEnabled() {
+		return this.isBatchingEnabled;
+	}
+	/**
+	 * Sets whether queued packets may be sent in batches. Only enable batching if the remote PacketConnection is able to unpack BatchPackets.
+	 * */
+	public void setIsBatchingEnabled(boolean isBatchingEnabled) {
+		this.isBatchingEnabled = isBatchingEnabled;
+	}
+
+	public boolean getIsAcknowledgementEnabled() {
+		return this.isAcknowledgementEnabled;
+	}
+	/**
+	 * Sets whether sent packets are sequenced and kept until the receiver acknowledged them, so that they can be sent again if the underlying connection is swapped.
+	 * Should only be enabled if this connection has a single remote PacketConnection. Acknowledgements can not be disabled once packets were sequenced.
+	 * */
+	public void setIsAcknowledgementEnabled(boolean isAcknowledgementEnabled) {
+		if (!isAcknowledgementEnabled && this.isAcknowledgementEnabled && (this.nextSequenceNumber != 0 || this.isReceivingSequencedPackets)) throw new IllegalStateException("Acknowledgements can not be disabled once packets were sequenced.");
+		
+		this.isAcknowledgementEnabled = isAcknowledgementEnabled;
+	}
+	/** Whether SequencedPackets were received, i.e. whether the remote PacketConnection sends again packets that were lost when the underlying connection was swapped. */
+	public boolean getIsReceivingSequencedPackets() {
+		return this.isReceivingSequencedPackets;
+	}
+	public int getRetransmitBufferSize() {
+		return this.retransmitBufferSize;
+	}
+	/** Sets the maximum number of unacknowledged packets. */
+	public void setRetransmitBufferSize(int retransmitBufferSize) {
+		if (retransmitBufferSize < 1) throw new IllegalArgumentException("retransmitBufferSize needs to be at least 1");
+		
+		this.retransmitBufferSize = retransmitBufferSize;
+		this.write();
+	}
+	public int getUnacknowledgedPacketCount() {
+		return this.unacknowledgedPackets.size();
+	}
+	/**
+	 * The size data packets should have. If adaptive packet sizing is enabled, the size is chosen based on the time it takes to send packets, 
+	 * within the bounds supported by the underlying connection. Otherwise, it is the underlying connection's recommended packet size.
+	 * */
+	public int getRecommendedPacketSize() {
+		if (this.underlyingConnection == null) return AdaptivePacketSizer.DEFAULT_PACKET_SIZE;
+		if (this.packetSizer == null) return this.underlyingConnection.getRecommendedPacketSize();
+		
+		return this.packetSizer.getPacketSize();
+	}
+	public boolean getIsAdaptivePacketSizingEnabled() {
+		return this.packetSizer != null;
+	}
+	/**
+	 * Sets whether the recommended packet size is adapted to the time it takes to send packets. See AdaptivePacketSizer.
+	 * */
+	public void setIsAdaptivePacketSizingEnabled(boolean isAdaptivePacketSizingEnabled) {
+		if (isAdaptivePacketSizingEnabled == (this.packetSizer != null)) return;
+		
+		if (isAdaptivePacketSizingEnabled) {
+			this.packetSizer = new AdaptivePacketSizer(AdaptivePacketSizer.DEFAULT_PACKET_SIZE, 1, AdaptivePacketSizer.DEFAULT_PACKET_SIZE);
+			if (this.underlyingConnection != null) this.resetPacketSizer();
+		} else {
+			this.packetSizer = null;
+		}
+	}
+	/** Starts adapting the packet size anew within the bounds of the current underlying connection. */
+	private void resetPacketSizer() {
+		this.packetSizer.reset(this.underlyingConnection.getRecommendedPacketSize(), this.underlyingConnection.getMinimumPacketSize(), this.underlyingConnection.getMaximumPacketSize());
+	}
+	/** Updates the packet size with the time it took to send a packet. */
+	private void onPacketSent(PacketInFlight packet) {
+		long now = System.nanoTime();
+		// If the packet was queued behind other packets, its send time starts when the previous packet was sent.
+		long sendTime = now - Math.max(packet.sendTime, this.lastSentTime);
+		this.lastSentTime = now;
+		
+		if (this.packetSizer != null) this.packetSizer.onPacketSent(packet.length, sendTime);
+	}
+	public int getMaximumPacketsInFlight() {
+		return this.maximumPacketsInFlight;
+	}
+	public int getMaximumBytesInFlight() {
+		return this.maximumBytesInFlight;
+	}
+	/**
+	 * Sets the in-flight window, i.e. how much data may be passed to the underlying connection before it reports that the data was sent.
+	 * 
+	 * @param maximumPackets The maximum number of packets in flight. A value of 1 sends packets strictly one after another.
+	 * @param maximumBytes The maximum number of bytes in flight. A packet that is larger than this value is still sent once no other packets are in flight.
+	 * */
+	public void setInFlightWindow(int maximumPackets, int maximumBytes) {
+		if (maximumPackets < 1) throw new IllegalArgumentException("maximumPackets needs to be at least 1");
+		if (maximumBytes < 1) throw new IllegalArgumentException("maximumBytes needs to be at least 1");
+		
+		this.maximumPacketsInFlight = maximumPackets;
+		this.maximumBytesInFlight = maximumBytes;
+		this.write();
+	}
+	public int getPacketsInFlight() {
+		return this.packetsInFlight.size();
+	}
+
 	public boolean getIsEstablishingConnection() {
 		return this.isEstablishingConnection;
 	}
@@ -196,8 +520,27 @@ public class PacketConnection {
 
 		if (previousConnection != null && previousConnection.isConnected()) previousConnection.close();
 
-		this.isSendingPacket = false;
-		this.unsentPackets.clear();
+		// The previous connection may still reference the packets that were in flight, so they are not returned to the pool.
+		// It was closed though, so it will not send any more file data.
+		for (PacketInFlight packet : this.packetsInFlight) {
+			if (packet.fileRegion != null) packet.fileRegion.release();
+		}
+		this.packetsInFlight.clear();
+		this.bytesInFlight = 0;
+		if (this.packetSizer != null && this.underlyingConnection != null) this.resetPacketSizer();
+		
+		if (this.isAcknowledgementEnabled) {
+			// Unacknowledged packets may have been lost with the previous connection, so they are sent again. Unsent packets are kept.
+			this.retransmittedPackets.clear();
+			this.retransmittedPackets.addAll(this.unacknowledgedPackets);
+		} else {
+			this.unsentPackets.forEach(lane -> {
+				lane.forEach(PacketConnection::releaseFileRegion);
+				lane.clear();
+			});
+		}
+		// Acknowledge the received packets, so that the remote connection does not need to send them again.
+		this.isAcknowledgementPending = this.isReceivingSequencedPackets;
 
 		if (this.underlyingConnection != null && this.underlyingConnection.isConnected()) this.onConnect();
 	}
@@ -209,6 +552,12 @@ public class PacketConnection {
 	public boolean getIsConnected() {
 		return this.underlyingConnection != null && this.underlyingConnection.isConnected();
 	}
+	/**
+	 * Whether the underlying connection can accept more data without excessive buffering. Packets are held back while it is not writable.
+	 * */
+	public boolean getIsWritable() {
+		return this.getIsConnected() && this.underlyingConnection.isWritable();
+	}
 
     /**
     * Closes the underlying connection
@@ -220,29 +569,184 @@ public class PacketConnection {
 	 * Writes a packet. The packet will be buffered and sent later if the connection is currently disconnected.
 	 */
 	public void writePacket(Packet packet) {
-		this.unsentPackets.add(packet);
+		this.unsentPackets.get(this.getLane(packet.getType())).add(packet);
 		this.write();
 	}
+	/**
+	 * Removes unsent packets that match a predicate, e.g. the remaining packets of a cancelled transfer.
+	 * The caller is responsible for releasing the FileRegions of the removed packets.
+	 * 
+	 * @return The removed packets, in the order they were queued in within each lane.
+	 */
+	public List<Packet> removeUnsentPackets(Predicate<Packet> predicate) {
+		List<Packet> removedPackets = new ArrayList<>();
+		
+		for (Queue<Packet> lane : this.unsentPackets) {
+			for (Iterator<Packet> iterator = lane.iterator(); iterator.hasNext();) {
+				Packet packet = iterator.next();
+				if (!predicate.test(packet)) continue;
+				
+				removedPackets.add(packet);
+				iterator.remove();
+			}
+		}
+		
+		return removedPackets;
+	}
+	/**
+	 * Sets the lane packets of a given type are queued in. Packets in lanes with a lower index are sent first.
+	 */
+	public void setLane(PacketType type, int lane) {
+		if (lane < 0 || lane >= LANE_COUNT) throw new IllegalArgumentException("lane needs to be between 0 and "+(LANE_COUNT-1));
+		
+		this.packetLanes.put(type, lane);
+	}
+	public int getLane(PacketType type) {
+		return this.packetLanes.getOrDefault(type, CONTROL_LANE);
+	}
+    /** Returns the first lane that contains packets, or null if all lanes are empty. */
+	private Queue<Packet> nextLane() {
+		for (Queue<Packet> lane : this.unsentPackets) {
+			if (lane.size() != 0) return lane;
+		}
+		
+		return null;
+	}
     /**
-    * Attempts to write any buffered packets, or notifies it's delegates that all packes have been written.
+    * Attempts to write buffered packets until the in-flight window is full. If all buffered packets have been written, the delegates are notified that 
+    * no packets are left, which gives them the chance to write more.
     */
 	public void write() {
-		if (this.isSendingPacket)
-			return;
+		if (this.isWriting) return;
+		
+		this.isWriting = true;
+		try {
+			while (this.canSendPacket()) {
+				if (this.isAcknowledgementPending) {
+					this.isAcknowledgementPending = false;
+					this.packetsReceivedSinceAcknowledgement = 0;
+					this.send(new AcknowledgementPacket(this.nextExpectedSequenceNumber));
+					continue;
+				}
+				if (!this.retransmittedPackets.isEmpty()) {
+					SequencedPacket packet = this.retransmittedPackets.poll();
+					this.send(packet.withAcknowledgementRequested(this.retransmittedPackets.isEmpty()));
+					continue;
+				}
+				if (this.isAcknowledgementEnabled && this.unacknowledgedPackets.size() >= this.retransmitBufferSize) break;
+				
+				Queue<Packet> lane = this.nextLane();
+				if (lane == null) {
+					this.delegates.forEach(delegate -> delegate.onNoPacketsLeft(this));
+					lane = this.nextLane();
+					if (lane == null) break;
+				}
+				
+				Packet nextPacket = lane.poll();
+				if (this.isBatchingEnabled && lane.size() != 0) nextPacket = this.batch(nextPacket, lane);
+				if (this.isAcknowledgementEnabled) nextPacket = this.sequence(nextPacket);
+				
+				this.send(nextPacket);
+			}
+		} finally {
+			this.isWriting = false;
+		}
+	}
+    /** Whether another packet may be passed to the underlying connection. */
+	private boolean canSendPacket() {
 		if (this.underlyingConnection == null
-				|| !this.underlyingConnection.isConnected())
+				|| !this.underlyingConnection.isConnected()
+				|| !this.underlyingConnection.isWritable())
+			return false;
+		if (this.packetsInFlight.size() == 0) return true;
+		
+		return this.packetsInFlight.size() < this.maximumPacketsInFlight && this.bytesInFlight < this.maximumBytesInFlight;
+	}
+    /** 
+    * Wraps a packet in a SequencedPacket and keeps it until it is acknowledged. An acknowledgement is requested if no further packets are queued, 
+    * or if the retransmit buffer is about to be full.
+    */
+	private SequencedPacket sequence(Packet packet) {
+		boolean isAcknowledgementRequested = this.nextLane() == null || this.unacknowledgedPackets.size() + 1 >= this.retransmitBufferSize;
+		SequencedPacket sequencedPacket = new SequencedPacket(this.nextSequenceNumber++, isAcknowledgementRequested, packet);
+		
+		this.unacknowledgedPackets.add(sequencedPacket);
+		return sequencedPacket;
+	}
+    /** 
+    * Passes a packet to the underlying connection. If the packet has file data that the underlying connection can not send from the file, 
+    * the data is read into a pooled buffer. Should the file not be readable, the underlying connection is closed, since the packet can not be sent.
+    */
+	private void send(Packet packet) {
+		PooledBuffer packetHeader = this.bufferPool.acquire(packet.headerSize());
+		ByteBuffer header = packetHeader.getBuffer();
+		ByteBuffer payload = packet.getPayload();
+		FileRegion fileRegion = packet.getFileRegion();
+		PooledBuffer fileData = null;
+		
+		try {
+			packet.serializeHeaderInto(header);
+			
+			if (fileRegion != null && !this.underlyingConnection.isFileRegionSupported()) {
+				fileData = this.bufferPool.acquire(fileRegion.length);
+				payload = fileData.getBuffer();
+				fileRegion.readInto(payload);
+				payload.flip();
+			}
+		} catch (IOException | UncheckedIOException e) {
+			System.err.println("Could not read the file data of a packet. Closing the underlying connection.");
+			e.printStackTrace();
+			packetHeader.release();
+			if (fileData != null) fileData.release();
+			if (fileRegion != null && !(packet instanceof SequencedPacket)) fileRegion.release();
+			this.underlyingConnection.close();
 			return;
-
-		Packet nextPacket = null;
-		if (this.unsentPackets.size() != 0) {
-			nextPacket = this.unsentPackets.poll();
 		}
-
-		if (nextPacket != null) {
-			this.isSendingPacket = true;
-			this.underlyingConnection.writeData(nextPacket.serialize());
+		header.flip();
+		
+		boolean isFileDataSentFromFile = fileRegion != null && fileData == null;
+		int length = header.remaining() + (payload == null ? 0 : payload.remaining()) + (isFileDataSentFromFile ? fileRegion.length : 0);
+		// Sequenced packets may need to be sent again, so their file region is only released once they are acknowledged.
+		FileRegion releasedFileRegion = packet instanceof SequencedPacket ? null : fileRegion;
+		
+		this.packetsInFlight.add(new PacketInFlight(packetHeader, fileData, releasedFileRegion, length, System.nanoTime()));
+		this.bytesInFlight += length;
+		
+		if (isFileDataSentFromFile) {
+			this.underlyingConnection.writeData(new ByteBuffer[] { header }, fileRegion);
+		} else if (payload == null) {
+			this.underlyingConnection.writeData(header);
 		} else {
-			this.delegates.forEach(delegate -> delegate.onNoPacketsLeft(this));
+			this.underlyingConnection.writeData(new ByteBuffer[] { header, payload });
+		}
+	}
+    /** Releases a packet's FileRegion, if it has one. */
+	private static void releaseFileRegion(Packet packet) {
+		FileRegion fileRegion = packet.getFileRegion();
+		if (fileRegion != null) fileRegion.release();
+	}
+    /**
+    * Combines a packet with as many of the following packets in its lane as fit into the recommended packet size.
+    * Returns the packet itself if no further packets fit. Packets with file data are not batched.
+    */
+	private Packet batch(Packet firstPacket, Queue<Packet> lane) {
+		int maximumSize = this.getRecommendedPacketSize();
+		int size = BatchPacket.MINIMUM_LENGTH + BatchPacket.batchedSize(firstPacket);
+		// Batches are serialized into a single buffer, which would defeat sending file data from the file.
+		if (size > maximumSize || firstPacket.getFileRegion() != null) return firstPacket;
+		
+		List<Packet> packets = new ArrayList<>();
+		packets.add(firstPacket);
+		
+		while (lane.size() != 0 && lane.peek().getFileRegion() == null) {
+			int packetSize = BatchPacket.batchedSize(lane.peek());
+			if (size + packetSize > maximumSize) break;
+			
+			size += packetSize;
+			packets.add(lane.poll());
 		}
+		
+		if (packets.size() == 1) return firstPacket;
+		return new BatchPacket(packets);
 	}
 }
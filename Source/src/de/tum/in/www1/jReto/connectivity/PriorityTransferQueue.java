@@ -0,0 +1,68 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+* A queue of OutTransfers ordered by priority. The head of the queue is the first transfer of the highest priority; transfers with the same priority
+* are kept in the order in which they were added.
+*/
+class PriorityTransferQueue implements Iterable<OutTransfer> {
+    /** The queued transfers, by priority, with the highest priority first. */
+	private final TreeMap<Integer, Deque<OutTransfer>> transfers = new TreeMap<>(Collections.reverseOrder());
+    /** The number of queued transfers. */
+	private int size = 0;
+	
+    /** Adds a transfer behind all transfers with the same or a higher priority. */
+	void add(OutTransfer transfer) {
+		this.transfers.computeIfAbsent(transfer.getPriority(), priority -> new ArrayDeque<>()).add(transfer);
+		this.size++;
+	}
+    /** Returns the head of the queue, or null if it is empty. */
+	OutTransfer peek() {
+		if (this.size == 0) return null;
+		
+		return this.transfers.firstEntry().getValue().peek();
+	}
+    /** Removes and returns the head of the queue, or returns null if it is empty. */
+	OutTransfer poll() {
+		if (this.size == 0) return null;
+		
+		Map.Entry<Integer, Deque<OutTransfer>> entry = this.transfers.firstEntry();
+		OutTransfer transfer = entry.getValue().poll();
+		if (entry.getValue().isEmpty()) this.transfers.remove(entry.getKey());
+		this.size--;
+		
+		return transfer;
+	}
+    /** Removes a transfer. Returns whether the transfer was contained in the queue. */
+	boolean remove(OutTransfer transfer) {
+		Deque<OutTransfer> transfers = this.transfers.get(transfer.getPriority());
+		if (transfers == null || !transfers.remove(transfer)) return false;
+		
+		if (transfers.isEmpty()) this.transfers.remove(transfer.getPriority());
+		this.size--;
+		
+		return true;
+	}
+	boolean contains(OutTransfer transfer) {
+		Deque<OutTransfer> transfers = this.transfers.get(transfer.getPriority());
+		
+		return transfers != null && transfers.contains(transfer);
+	}
+	int size() {
+		return this.size;
+	}
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+    /** Iterates over all transfers in queue order. */
+	@Override
+	public Iterator<OutTransfer> iterator() {
+		return this.transfers.values().stream().flatMap(Deque::stream).iterator();
+	}
+}
@@ -180,4 +180,6 @@ public class ReliablitiyManager implements PacketConnection.Handler {
 	}
 	@Override
 	public void onNoPacketsLeft(PacketConnection connection) {}
+	@Override
+	public void onUnderlyingConnectionWritabilityChanged(PacketConnection connection) {}
 }
@@ -0,0 +1,88 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import de.tum.in.www1.jReto.connectivity.packet.DataPacket;
+import de.tum.in.www1.jReto.connectivity.packet.EndedTransferPacket;
+import de.tum.in.www1.jReto.packet.Packet;
+
+/**
+* A StreamOutTransfer is an OutTransfer whose length is not known when it is started. Its data is appended piece by piece by a TransferOutputStream, 
+* and the transfer is completed by an EndedTransferPacket once the stream was closed and all data was sent.
+*
+* Data is discarded once it was passed to the packet connection. A StreamOutTransfer can therefore only be resumed after an interruption 
+* if the receiver received all data that was sent; otherwise, it is cancelled.
+*/
+public class StreamOutTransfer extends OutTransfer {
+    /** The data that was appended, but not yet sent. */
+	private final Queue<ByteBuffer> bufferedData = new ArrayDeque<>();
+    /** The total length of the buffered data. */
+	private int bufferedLength = 0;
+    /** Whether the stream was closed, i.e. no more data will be appended. */
+	private boolean isEndOfStream = false;
+    /** The output stream that appends data to this transfer. Notified when data was sent, so that it can apply backpressure. */
+	TransferOutputStream outputStream;
+	
+	public StreamOutTransfer(TransferManager transferManager, int identifier, int priority, int weight) {
+		super(transferManager, UNKNOWN_LENGTH, null, identifier, priority, weight);
+	}
+	
+    /** Appends data to be sent. */
+	void append(ByteBuffer data) {
+		if (this.isEndOfStream) throw new IllegalStateException("Attempted to append data to a stream that was already ended.");
+		
+		this.bufferedData.add(data);
+		this.bufferedLength += data.remaining();
+	}
+    /** Ends the stream. The transfer completes once the buffered data was sent. */
+	void end() {
+		this.isEndOfStream = true;
+	}
+	
+	@Override
+	boolean hasPacketAvailable() {
+		if (this.getIsCompleted() || this.getIsCancelled()) return false;
+		// The end of the stream carries no data, so it does not need credit.
+		return this.bufferedLength != 0 ? this.getAvailableCredit() != 0 : this.isEndOfStream;
+	}
+	@Override
+	int getUnsentLength() {
+		return this.bufferedLength;
+	}
+	@Override
+	boolean canResumeAt(int progress) {
+		return progress == this.getProgress();
+	}
+	@Override
+	Packet nextPacket(int length) {
+		ByteBuffer head = this.bufferedData.peek();
+		if (head == null) {
+			this.setLength(this.getProgress());
+			this.confirmCompletion();
+			return new EndedTransferPacket(this.getIdentifier(), this.getLength());
+		}
+		
+		int dataLength = Math.min(Math.min(head.remaining(), this.getAvailableCredit()), length - DataPacket.MINIMUM_LENGTH);
+		ByteBuffer data = head.duplicate();
+		data.limit(data.position() + dataLength);
+		head.position(head.position() + dataLength);
+		if (!head.hasRemaining()) this.bufferedData.poll();
+		
+		this.bufferedLength -= dataLength;
+		this.updateProgress(dataLength);
+		if (this.outputStream != null) this.outputStream.onDataSent(dataLength);
+		
+		return new DataPacket(this.getIdentifier(), data);
+	}
+	
+	@Override
+	void confirmCancel() {
+		this.bufferedData.clear();
+		this.bufferedLength = 0;
+		if (this.outputStream != null) this.outputStream.onCancel();
+		
+		super.confirmCancel();
+	}
+}
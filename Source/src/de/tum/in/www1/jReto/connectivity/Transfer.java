@@ -1,6 +1,5 @@
 package de.tum.in.www1.jReto.connectivity;
 
-import java.util.UUID;
 
 /**
 * A Transfer object represents a data transfer between two or more peers. 
@@ -19,6 +18,9 @@ import java.util.UUID;
 * All of these events are optional. Note: Incoming transfers have separate events that give access to the received data. See the InTransfer class documentation.
 */
 public abstract class Transfer {
+    /** The length of a streamed transfer whose end was not yet reached. */
+	public static final int UNKNOWN_LENGTH = -1;
+	
 	public static interface StartHandler {
 		void onStart(Transfer transfer);
 	}
@@ -90,14 +92,14 @@ public abstract class Transfer {
 	private boolean isCompleted;
     /** Whether the transfer was cancelled */
 	private boolean isCancelled;
-    /** The transfer's length in bytes*/
-	private final int length;
+    /** The transfer's length in bytes, or UNKNOWN_LENGTH if the transfer is a stream that was not yet ended. */
+	private int length;
     /** The transfer's current progress in bytes */
 	private int progress;
     /** Indicates if the transfer is currently interrupted. This occurs, for example, when a connection closes unexpectedly. The transfer is resumed automatically on reconnect. */
 	private boolean isInterrupted;
-    /** The transfer's identifier */
-	private final UUID identifier;
+    /** The transfer's identifier. Identifiers are assigned by the sending TransferProcessor and are only unique within a connection. */
+	private final int identifier;
     /** The transfer's manager. */
 	private final TransferManager transferManager;
 
@@ -107,7 +109,7 @@ public abstract class Transfer {
     * @param length The total length of the transfer in bytes.
     * @param identifier The transfer's identifier.
     */
-	public Transfer(TransferManager transferManager, int length, UUID identifier) {
+	public Transfer(TransferManager transferManager, int length, int identifier) {
 		this.length = length;
 		this.identifier = identifier;
 		this.transferManager = transferManager;
@@ -124,21 +126,29 @@ public abstract class Transfer {
 	}
 	
     /** The transfer's identifier */
-	public UUID getIdentifier() {
+	public int getIdentifier() {
 		return this.identifier;
 	}
 	
-    /** The transfer's length in bytes*/
+    /** The transfer's length in bytes, or UNKNOWN_LENGTH if the transfer is a stream whose end was not yet reached. */
 	public int getLength() {
 		return this.length;
 	}
+    /** Whether the transfer's length is known. The length of a streamed transfer becomes known once the stream ends. */
+	public boolean getIsLengthKnown() {
+		return this.length != UNKNOWN_LENGTH;
+	}
+    /** Sets the length of a transfer whose length was unknown. */
+	void setLength(int length) {
+		this.length = length;
+	}
 	
 	/** Cancels the transfer. */
 	public abstract void cancel();
 	
     /** Updates the transfer's progress. */
 	void updateProgress(int numberOfBytes) {
-		if (this.length < this.progress+numberOfBytes) throw new IllegalArgumentException("You may not update the progress beyond the Transfer's length.");
+		if (this.getIsLengthKnown() && this.length < this.progress+numberOfBytes) throw new IllegalArgumentException("You may not update the progress beyond the Transfer's length.");
 		
 		this.progress += numberOfBytes;
 		
@@ -4,4 +4,8 @@ package de.tum.in.www1.jReto.connectivity;
 public interface TransferManager {
 	void cancelTransfer(InTransfer transfer);
 	void cancelTransfer(OutTransfer transfer);
+	/** Allows the sender of an incoming transfer to send data up to a given offset. */
+	void grantCredit(InTransfer transfer, int creditLimit);
+	/** Called when data of an incoming transfer was passed to the application or discarded, i.e. when it no longer occupies the receive window. */
+	void confirmDataProcessed(InTransfer transfer, int length);
 }
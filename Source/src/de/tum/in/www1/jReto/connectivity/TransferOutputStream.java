@@ -0,0 +1,140 @@
+package de.tum.in.www1.jReto.connectivity;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+* A TransferOutputStream sends the data written to it as a transfer whose length does not need to be known in advance. 
+* It can be obtained by calling the connection's openOutputStream method.
+*
+* Written data is collected in chunks, which are handed to the connection's executor once they are full, or when flush is called. Closing the stream ends 
+* the transfer; the receiver's transfer completes once all data was received.
+*
+* The amount of data that was written but not yet sent is limited. When the limit is reached, write blocks until data was sent. Therefore, the stream should be 
+* written to from a thread other than the connection's executor. A TransferOutputStream may only be used by a single thread at a time.
+*
+* If the transfer is cancelled, e.g. by the receiver, further writes throw an IOException. Cancellation is only checked once per chunk, when it is started
+* and when it is handed out, so that writing a single byte only appends it to the current chunk.
+*/
+public class TransferOutputStream extends OutputStream {
+    /** The default size of the chunks that are handed to the connection's executor. */
+	public static final int DEFAULT_CHUNK_SIZE = 32*1024;
+    /** The default maximum number of bytes that were written, but not yet sent. */
+	public static final int DEFAULT_MAXIMUM_BUFFERED_BYTES = 1024*1024;
+	
+	private final TransferProcessor transferProcessor;
+	private final StreamOutTransfer transfer;
+	private final Executor executor;
+	private final int chunkSize;
+	private final int maximumBufferedBytes;
+	
+    /** The chunk data is currently written into. Null if no data was written since the last chunk was handed out. */
+	private ByteBuffer chunk;
+    /** Whether close was called. */
+	private boolean isClosed = false;
+    /** The number of bytes that were handed out, but not yet sent. Guarded by this object's monitor. */
+	private int bufferedBytes = 0;
+    /** Whether the transfer was cancelled. Guarded by this object's monitor. */
+	private boolean isCancelled = false;
+	
+	TransferOutputStream(TransferProcessor transferProcessor, StreamOutTransfer transfer, Executor executor, int chunkSize, int maximumBufferedBytes) {
+		if (chunkSize < 1) throw new IllegalArgumentException("chunkSize needs to be at least 1");
+		if (maximumBufferedBytes < chunkSize) throw new IllegalArgumentException("maximumBufferedBytes may not be smaller than chunkSize");
+		
+		this.transferProcessor = transferProcessor;
+		this.transfer = transfer;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.maximumBufferedBytes = maximumBufferedBytes;
+		
+		transfer.outputStream = this;
+	}
+	
+    /** The transfer the written data is sent with. Can be used to follow the transfer's progress, or to cancel it. */
+	public OutTransfer getTransfer() {
+		return this.transfer;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (this.chunk == null) this.startChunk();
+		this.chunk.put((byte)b);
+		if (!this.chunk.hasRemaining()) this.submitChunk();
+	}
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > data.length) throw new IndexOutOfBoundsException();
+		
+		while (length > 0) {
+			if (this.chunk == null) this.startChunk();
+			
+			int writtenLength = Math.min(length, this.chunk.remaining());
+			this.chunk.put(data, offset, writtenLength);
+			offset += writtenLength;
+			length -= writtenLength;
+			
+			if (!this.chunk.hasRemaining()) this.submitChunk();
+		}
+	}
+    /** Hands the data written so far to the connection, even if the current chunk is not full yet. */
+	@Override
+	public void flush() throws IOException {
+		this.ensureOpen();
+		if (this.chunk != null) this.submitChunk();
+	}
+    /** Flushes the remaining data and ends the transfer. */
+	@Override
+	public void close() throws IOException {
+		if (this.isClosed) return;
+		
+		this.flush();
+		this.isClosed = true;
+		this.executor.execute(() -> this.transferProcessor.endStream(this.transfer));
+	}
+	
+	private void ensureOpen() throws IOException {
+		if (this.isClosed) throw new IOException("The stream was closed.");
+		synchronized (this) {
+			if (this.isCancelled) throw new IOException("The transfer was cancelled.");
+		}
+	}
+    /** Allocates a new chunk to write data into, after checking that the stream is still open. */
+	private void startChunk() throws IOException {
+		this.ensureOpen();
+		this.chunk = ByteBuffer.allocate(this.chunkSize);
+	}
+    /** Hands the current chunk to the connection's executor, blocking while too much data is waiting to be sent. */
+	private void submitChunk() throws IOException {
+		final ByteBuffer data = this.chunk;
+		this.chunk = null;
+		data.flip();
+		
+		synchronized (this) {
+			try {
+				while (!this.isCancelled && this.bufferedBytes != 0 && this.bufferedBytes + data.remaining() > this.maximumBufferedBytes) this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for buffered data to be sent.");
+			}
+			if (this.isCancelled) throw new IOException("The transfer was cancelled.");
+			
+			this.bufferedBytes += data.remaining();
+		}
+		
+		this.executor.execute(() -> this.transferProcessor.writeStreamData(this.transfer, data));
+	}
+	
+    /** Called on the connection's executor when data was passed to the packet connection. */
+	synchronized void onDataSent(int length) {
+		this.bufferedBytes -= length;
+		this.notifyAll();
+	}
+    /** Called on the connection's executor when the transfer was cancelled. */
+	synchronized void onCancel() {
+		this.isCancelled = true;
+		this.notifyAll();
+	}
+}
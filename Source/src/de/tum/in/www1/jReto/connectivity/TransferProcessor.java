@@ -1,31 +1,81 @@
 package de.tum.in.www1.jReto.connectivity;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 
 import de.tum.in.www1.jReto.Connection.DataProvider;
 import de.tum.in.www1.jReto.connectivity.packet.CancelledTransferPacket;
 import de.tum.in.www1.jReto.connectivity.packet.DataPacket;
+import de.tum.in.www1.jReto.connectivity.packet.EndedTransferPacket;
+import de.tum.in.www1.jReto.connectivity.packet.InlineMessagePacket;
 import de.tum.in.www1.jReto.connectivity.packet.ProgressInformationPacket;
 import de.tum.in.www1.jReto.connectivity.packet.StartedTransferPacket;
+import de.tum.in.www1.jReto.connectivity.packet.TransferCreditPacket;
 import de.tum.in.www1.jReto.connectivity.packet.ProgressInformationPacket.TransferProgressInformation;
+import de.tum.in.www1.jReto.packet.Packet;
 import de.tum.in.www1.jReto.packet.PacketType;
 
 /**
 * The TransferManager class is responsible to perform data transfers. It supports resuming transfers after a connection failed during a transfer, 
 * and the cancellation of transfers.
+*
+* Several transfers can be active at the same time. Each DataPacket carries the identifier of its transfer, so that a small transfer does not need to wait 
+* until a large one that was started before it has been sent completely. The number of concurrently active outgoing transfers is limited; 
+* further transfers are queued until an active one ends, unless their priority is higher than that of all active transfers.
+*
+* The next packet is always taken from an active transfer with the highest priority. Active transfers with the same priority take turns in a weighted round-robin
+* fashion: a transfer sends as many packets as its weight before the next transfer's turn starts.
+*
+* Transfers are identified by 32 bit identifiers that the sending TransferProcessor assigns in ascending order. Since both peers number their transfers independently,
+* incoming transfers are identified by the remote peer's identifiers, outgoing transfers by the local ones.
+*
+* Transfers whose length is not known in advance can be streamed using startStream. Their data is sent as it is written, 
+* and an EndedTransferPacket tells the receiver the final length once the stream is closed.
+*
+* The receiver of a transfer may consume it on demand (see InTransfer.requestData). It then grants credit using TransferCreditPackets, and the transfer 
+* only sends data up to the granted offset. Transfers whose receiver never granted credit are not limited.
+*
+* Small messages can be sent without a transfer using sendMessage. A message is sent in a single InlineMessagePacket, which is queued immediately instead of being
+* scheduled with the transfers, and the receiver passes its payload to the handler without creating an InTransfer.
+*
+* In addition, the data sent over the connection as a whole is limited by the receive window that the remote side announces (see FlowController). 
+* Transfer data is only sent while the window is not used up; messages are always sent, but count towards the window.
 */
 public class TransferProcessor implements PacketConnection.Handler, TransferManager {
 	public static interface TransferProcessorHandler {
 	    /** Called when an incoming transfer starts. */
 		void notifyTransferStarted(InTransfer transfer);
+	    /** 
+	    * Called when a message sent with sendMessage was received. 
+	    * 
+	    * @return Whether the message was handled. If false, the message is delivered as a transfer that is completed immediately.
+	    */
+		boolean notifyMessageReceived(ByteBuffer data);
+	    /** Called when the unsent bytes of outgoing transfers and messages cross the high watermark or drop back to the low watermark. */
+		void notifyWritabilityChanged(boolean isWritable);
 	}
+    /** The default number of unsent bytes of outgoing transfers above which the processor becomes unwritable. */
+	public static final int DEFAULT_HIGH_WATERMARK = 4*1024*1024;
+    /** The default number of unsent bytes of outgoing transfers at which an unwritable processor becomes writable again. */
+	public static final int DEFAULT_LOW_WATERMARK = 1024*1024;
+    /** The default maximum number of outgoing transfers that are sent at the same time. */
+	public static final int DEFAULT_MAXIMUM_ACTIVE_TRANSFERS = 16;
+    /** The default maximum length of a message sent with sendMessage. */
+	public static final int DEFAULT_MAXIMUM_MESSAGE_LENGTH = 4*1024;
+    /** 
+    * An identifier that is never assigned to an outgoing transfer. Used for incoming transfers the remote side does not know about, 
+    * i.e. inline messages that are delivered as transfers, so that they can never be confused with an actual transfer.
+    */
+	public static final int UNREGISTERED_TRANSFER_IDENTIFIER = Integer.MIN_VALUE;
+
     /** The TransferManager's delegate.*/
 	private TransferProcessorHandler handler;
     /** The packetConnection used to send and receive packets. */
@@ -33,12 +83,35 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 
     /** Whether all transfers are currently interrupted. This is the case when a packet connection's underlying connection fails. */
 	private boolean isInterrupted;
-    /** The transfer that is currently being received. */
-	private InTransfer currentInTransfer;
-    /** The transfer that is currently being sent. */
-	private OutTransfer currentOutTransfer;
+    /** The transfers that are currently being received, by their identifiers. */
+	private final Map<Integer, InTransfer> inTransfers = new LinkedHashMap<>();
+    /** 
+    * The identifier of the next outgoing transfer. Starts at a random value, so that the transfers of multiple peers that send to the same 
+    * multicast connection are unlikely to share identifiers.
+    */
+	private int nextTransferIdentifier = ThreadLocalRandom.current().nextInt();
+    /** The transfers that are currently being sent. The transfer at the head of the queue sends the next packet. */
+	private final PriorityTransferQueue activeOutTransfers = new PriorityTransferQueue();
+    /** The maximum number of transfers in activeOutTransfers. */
+	private int maximumActiveTransfers = DEFAULT_MAXIMUM_ACTIVE_TRANSFERS;
     /** A queue of transfers that will be sent next. */
-	private Queue<OutTransfer> outTransferQueue;
+	private final PriorityTransferQueue outTransferQueue = new PriorityTransferQueue();
+    /** The total length of the transfers in the outTransferQueue. */
+	private long queuedTransferBytes;
+    /** The number of unsent bytes above which the processor becomes unwritable. */
+	private int highWatermark = DEFAULT_HIGH_WATERMARK;
+    /** The number of unsent bytes at which an unwritable processor becomes writable again. */
+	private int lowWatermark = DEFAULT_LOW_WATERMARK;
+    /** Whether the unsent bytes are below the high watermark, i.e. whether more transfers should be started. */
+	private boolean isWritable = true;
+    /** The maximum length of a message sent with sendMessage. */
+	private int maximumMessageLength = DEFAULT_MAXIMUM_MESSAGE_LENGTH;
+    /** The number of bytes of messages that were not yet passed to the underlying connection, including the pendingMessages. */
+	private long unsentMessageBytes;
+    /** Messages that could not be queued with the packet connection while it was not connected. They are sent once it is connected. */
+	private final List<Packet> pendingMessages = new ArrayList<>();
+    /** Limits the data sent to the receive window announced by the remote side, and announces the local receive window. */
+	private final FlowController flowController;
 	
     /** 
     * Constructs a new TransferManager.
@@ -46,53 +119,234 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
     * @param packetConnection The PacketConnection used to send and receive data transfers.
     */
 	public TransferProcessor(PacketConnection packetConnection) {
-		this.outTransferQueue = new LinkedList<OutTransfer>();
 		this.isInterrupted = false;
 		this.packetConnection = packetConnection;
+		// Created first, since it may announce its window right away, which causes the packet connection to ask this processor for packets.
+		this.flowController = new FlowController(packetConnection);
 		
 		this.packetConnection.addDelegate(this);
+		this.packetConnection.setLane(PacketType.DATA_PACKET, PacketConnection.BULK_LANE);
+		this.packetConnection.setLane(PacketType.INLINE_MESSAGE, PacketConnection.BULK_LANE);
+		// Streams are ended after their last data packet, so the end needs to be queued in the same lane.
+		this.packetConnection.setLane(PacketType.TRANSFER_ENDED, PacketConnection.BULK_LANE);
 	}
 	
     /** 
-    * Starts a transfer.
+    * Starts a transfer with the default priority and weight.
     *
     * @param dataLength The length of the transfer in bytes.
     * @param dataProvider A function that returns data for a given range.
     * @return An OutTransfer object.
     */
 	public OutTransfer startTransfer(int transferLength, DataProvider dataProvider) {
-		OutTransfer transfer = new OutTransfer(this, transferLength, dataProvider, UUID.randomUUID());
+		return this.startTransfer(transferLength, dataProvider, OutTransfer.DEFAULT_PRIORITY, OutTransfer.DEFAULT_WEIGHT);
+	}
+    /** 
+    * Starts a transfer.
+    *
+    * @param dataLength The length of the transfer in bytes.
+    * @param dataProvider A function that returns data for a given range.
+    * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+    * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+    * @return An OutTransfer object.
+    */
+	public OutTransfer startTransfer(int transferLength, DataProvider dataProvider, int priority, int weight) {
+		OutTransfer transfer = new OutTransfer(this, transferLength, dataProvider, this.assignTransferIdentifier(), priority, weight);
 		
 		this.outTransferQueue.add(transfer);
+		this.queuedTransferBytes += transferLength;
+		this.updateWritability();
 		
 		this.packetConnection.write();		
 		return transfer;
 	}
+    /** 
+    * Starts a transfer whose data is read from a file. Its packets refer to the file's data instead of carrying it, 
+    * so that connections that support it can send it straight from the file.
+    *
+    * @param fileChannel The file to send, starting at position 0. The transfer closes it once it ended.
+    * @param transferLength The length of the transfer in bytes.
+    * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+    * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+    * @return An OutTransfer object.
+    */
+	public OutTransfer startFileTransfer(FileChannel fileChannel, int transferLength, int priority, int weight) {
+		OutTransfer transfer = new FileOutTransfer(this, fileChannel, transferLength, this.assignTransferIdentifier(), priority, weight);
+		
+		this.outTransferQueue.add(transfer);
+		this.queuedTransferBytes += transferLength;
+		this.updateWritability();
+		
+		this.packetConnection.write();
+		return transfer;
+	}
+    /** 
+    * Starts a transfer whose data is written to an output stream. The length of the transfer does not need to be known in advance.
+    *
+    * @param executor The executor this processor is used on. Data written to the stream is handed to the processor on this executor.
+    * @param priority The transfer's priority. Transfers with a higher priority are sent first.
+    * @param weight The transfer's share of the connection relative to other transfers with the same priority. Needs to be at least 1.
+    * @return A TransferOutputStream that sends the data written to it.
+    */
+	public TransferOutputStream startStream(Executor executor, int priority, int weight) {
+		StreamOutTransfer transfer = new StreamOutTransfer(this, this.assignTransferIdentifier(), priority, weight);
+		TransferOutputStream outputStream = new TransferOutputStream(this, transfer, executor, TransferOutputStream.DEFAULT_CHUNK_SIZE, TransferOutputStream.DEFAULT_MAXIMUM_BUFFERED_BYTES);
+		
+		this.outTransferQueue.add(transfer);
+		this.packetConnection.write();
+		return outputStream;
+	}
+    /** Appends data written to a TransferOutputStream to its transfer. */
+	void writeStreamData(StreamOutTransfer transfer, ByteBuffer data) {
+		if (transfer.getIsCancelled()) return;
+		
+		transfer.append(data);
+		this.updateWritability();
+		this.packetConnection.write();
+	}
+    /** Ends a streamed transfer once all data written to its TransferOutputStream was sent. */
+	void endStream(StreamOutTransfer transfer) {
+		if (transfer.getIsCancelled()) return;
+		
+		transfer.end();
+		this.packetConnection.write();
+	}
+	
+    /** 
+    * Sends a small message in a single packet. The message is queued right away, so it is sent before any further data of active transfers. 
+    * The remote TransferProcessor needs to support InlineMessagePackets.
+    * 
+    * @param data The message. Its length may not exceed the maximum message length.
+    */
+	public void sendMessage(ByteBuffer data) {
+		if (data == null) throw new IllegalArgumentException("data may not be null");
+		if (data.remaining() > this.maximumMessageLength) throw new IllegalArgumentException("Messages may not be longer than "+this.maximumMessageLength+" bytes");
+		
+		InlineMessagePacket packet = new InlineMessagePacket(data);
+		this.flowController.onDataSent(data.remaining());
+		this.unsentMessageBytes += data.remaining();
+		// Without acknowledgements, packets queued while the connection is not connected would be discarded when the underlying connection is swapped.
+		if (!this.packetConnection.getIsConnected() && !this.packetConnection.getIsAcknowledgementEnabled()) {
+			this.pendingMessages.add(packet);
+		} else {
+			this.packetConnection.writePacket(packet);
+		}
+		this.updateWritability();
+	}
+	public int getMaximumMessageLength() {
+		return this.maximumMessageLength;
+	}
+    /** Sets the maximum length of messages sent with sendMessage. Larger data needs to be sent as a transfer. */
+	public void setMaximumMessageLength(int maximumMessageLength) {
+		if (maximumMessageLength < 0) throw new IllegalArgumentException("maximumMessageLength may not be negative");
+		
+		this.maximumMessageLength = maximumMessageLength;
+	}
+	public int getReceiveWindow() {
+		return this.flowController.getReceiveWindow();
+	}
+    /** Sets the number of bytes the remote side may send before they were processed locally. */
+	public void setReceiveWindow(int receiveWindow) {
+		this.flowController.setReceiveWindow(receiveWindow);
+	}
+	
+    /** 
+    * Sets the watermarks used to determine writability.
+    * 
+    * @param lowWatermark The number of unsent bytes at which an unwritable processor becomes writable again.
+    * @param highWatermark The number of unsent bytes above which the processor becomes unwritable.
+    */
+	public void setWatermarks(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0) throw new IllegalArgumentException("lowWatermark may not be negative");
+		if (highWatermark < lowWatermark) throw new IllegalArgumentException("highWatermark may not be smaller than lowWatermark");
+		
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.updateWritability();
+	}
+    /** Whether the unsent bytes of outgoing transfers are below the high watermark. */
+	public boolean getIsWritable() {
+		return this.isWritable;
+	}
+    /** The number of bytes of outgoing transfers that were not yet handed to the packet connection, and of messages that were not yet sent. */
+	public long getUnsentBytes() {
+		long unsentBytes = this.queuedTransferBytes + this.unsentMessageBytes;
+		for (OutTransfer transfer : this.activeOutTransfers) unsentBytes += transfer.getUnsentLength();
+		
+		return unsentBytes;
+	}
+	public int getMaximumActiveTransfers() {
+		return this.maximumActiveTransfers;
+	}
+    /** 
+    * Sets the maximum number of outgoing transfers that are sent at the same time. Transfers that are already active are not affected if the value is decreased.
+    * 
+    * @param maximumActiveTransfers The maximum number of active transfers. A value of 1 sends transfers strictly one after another.
+    */
+	public void setMaximumActiveTransfers(int maximumActiveTransfers) {
+		if (maximumActiveTransfers < 1) throw new IllegalArgumentException("maximumActiveTransfers needs to be at least 1");
+		
+		this.maximumActiveTransfers = maximumActiveTransfers;
+		this.packetConnection.write();
+	}
+    /** Updates the writability according to the unsent bytes and notifies the handler if it changed. */
+	private void updateWritability() {
+		long unsentBytes = this.getUnsentBytes();
+		boolean isWritable = this.isWritable ? unsentBytes <= this.highWatermark : unsentBytes <= this.lowWatermark;
+		if (isWritable == this.isWritable) return;
+		
+		this.isWritable = isWritable;
+		if (this.handler != null) this.handler.notifyWritabilityChanged(isWritable);
+	}
 	
     /** Cancels an incoming transfer. */
 	public void cancelTransfer(InTransfer transfer) {
 		if (transfer == null) throw new IllegalArgumentException("transfer may not be null.");
 		
-		if (transfer == this.currentInTransfer) {
-			this.packetConnection.writePacket(new CancelledTransferPacket(this.currentInTransfer.getIdentifier()));
+		if (this.inTransfers.get(transfer.getIdentifier()) == transfer) {
+			this.packetConnection.writePacket(new CancelledTransferPacket(transfer.getIdentifier(), false));
+		} else if (transfer.getIsAllDataTransmitted() && !transfer.getIsCompleted() && !transfer.getIsCancelled()) {
+			// All data of a demand-driven transfer was received, but not yet requested; the sender is not involved anymore.
+			transfer.confirmCancel();
+			return;
 		} else {
-			throw new IllegalArgumentException("Transfer is not the current in transfger");
+			throw new IllegalArgumentException("Transfer is not an active in transfer");
 		}
 
 		this.packetConnection.write();		
 	}
+    /** Grants the sender of an incoming transfer credit to send data up to a given offset. */
+	public void grantCredit(InTransfer transfer, int creditLimit) {
+		if (transfer == null) throw new IllegalArgumentException("transfer may not be null.");
+		// Once all data was received, no more credit is needed.
+		if (this.inTransfers.get(transfer.getIdentifier()) != transfer) return;
+		
+		this.packetConnection.writePacket(new TransferCreditPacket(transfer.getIdentifier(), creditLimit));
+	}
+    /** Reopens the receive window for data that an incoming transfer passed to the application or discarded. */
+	public void confirmDataProcessed(InTransfer transfer, int length) {
+		this.flowController.onDataProcessed(length);
+	}
     /** Cancels an outgoing transfer. */
 	public void cancelTransfer(OutTransfer transfer) {
 		if (transfer == null) throw new IllegalArgumentException("transfer may not be null.");
 		
 		if (this.outTransferQueue.contains(transfer)) {
 			this.outTransferQueue.remove(transfer);
+			this.queuedTransferBytes -= queuedLength(transfer);
 			transfer.confirmCancel();
+			this.updateWritability();
 			return;
-		} else if (transfer == this.currentOutTransfer) {
-			this.packetConnection.writePacket(new CancelledTransferPacket(this.currentOutTransfer.getIdentifier()));
-			this.currentOutTransfer.confirmCancel();
-			this.currentOutTransfer = null;
+		} else if (this.activeOutTransfers.remove(transfer)) {
+			List<Packet> unsentPackets = this.packetConnection.removeUnsentPackets(packet -> packet instanceof DataPacket && ((DataPacket)packet).transferIdentifier == transfer.getIdentifier());
+			for (Packet packet : unsentPackets) {
+				// Data that is never sent does not use up the remote side's window.
+				this.flowController.onDataSent(-((DataPacket)packet).getDataLength());
+				if (packet.getFileRegion() != null) packet.getFileRegion().release();
+			}
+			this.packetConnection.writePacket(new CancelledTransferPacket(transfer.getIdentifier(), true));
+			transfer.confirmCancel();
+			this.updateWritability();
 		}
 
 		this.packetConnection.write();		
@@ -104,23 +358,43 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 			return;
 		}
 		
-		// TODO: current out transfer might be null
+		List<OutTransfer> unresumableTransfers = new ArrayList<>();
+		
 		for (ProgressInformationPacket.TransferProgressInformation information : progressInformation.progressInformation) {
-			if (information.transferIdentifier.equals(this.currentOutTransfer.getIdentifier())) {
-				this.currentOutTransfer.setProgress(information.progress);
-				this.currentOutTransfer.setInterrupted(false);
+			OutTransfer transfer = this.findActiveOutTransfer(information.transferIdentifier);
+			
+			if (transfer == null) {
+				System.err.println("Received progress information for unrecognized transfer.");
+			} else if (transfer.canResumeAt(information.progress)) {
+				transfer.setProgress(information.progress);
+				transfer.setInterrupted(false);
 			} else {
-				throw new Error("Received progress information for unrecognized transfer.");
+				unresumableTransfers.add(transfer);
+			}
+		}
+		
+		// Transfers the remote peer did not report progress for have not been started on its side, so they are started again.
+		for (OutTransfer transfer : this.activeOutTransfers) {
+			if (!transfer.getIsInterrupted() || unresumableTransfers.contains(transfer)) continue;
+			
+			if (!transfer.canResumeAt(0)) {
+				unresumableTransfers.add(transfer);
+				continue;
 			}
+			
+			transfer.setProgress(0);
+			transfer.setInterrupted(false);
+			this.packetConnection.writePacket(new StartedTransferPacket(transfer.getIdentifier(), transfer.getLength()));
 		}
 		
-		if (this.currentOutTransfer != null && this.currentOutTransfer.getIsInterrupted()) {
-			this.currentOutTransfer.setProgress(0);
-			this.currentOutTransfer.setInterrupted(false);
-			this.packetConnection.writePacket(new StartedTransferPacket(this.currentOutTransfer.getIdentifier(), this.currentOutTransfer.getLength()));
+		// Streamed data that was lost can not be sent again.
+		for (OutTransfer transfer : unresumableTransfers) {
+			System.err.println("Cancelling a streamed transfer since data was lost when the connection was interrupted.");
+			this.cancelTransfer(transfer);
 		}
 		
 		this.isInterrupted = false;
+		this.updateWritability();
 		this.packetConnection.write();
 	}
     /** Called when a transfer is started. */
@@ -130,12 +404,16 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 			return;
 		}
 		
-		if (this.currentInTransfer != null) throw new Error("Attempted to start in transfer, but there is still an in transfer active.");
+		if (this.inTransfers.containsKey(startedTransfer.transferIdentifier)) {
+			System.err.println("Received start of a transfer that is already active.");
+			return;
+		}
 		
-		this.currentInTransfer = new InTransfer(this, startedTransfer.transferLength, startedTransfer.transferIdentifier);
+		InTransfer transfer = new InTransfer(this, startedTransfer.transferLength, startedTransfer.transferIdentifier);
+		this.inTransfers.put(transfer.getIdentifier(), transfer);
 		
-		this.handler.notifyTransferStarted(this.currentInTransfer);
-		this.currentInTransfer.confirmStart();
+		this.handler.notifyTransferStarted(transfer);
+		transfer.confirmStart();
 	}
     /** Handles a cancelled transfer packet. */
 	private void handleCancelledTransfer(CancelledTransferPacket cancelledTransferPacket) {
@@ -144,22 +422,109 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 			return;
 		}
 		
-		if (this.currentOutTransfer != null && cancelledTransferPacket.transferIdentifier.equals(this.currentOutTransfer.getIdentifier())) {
-			this.cancelTransfer(this.currentOutTransfer);
-		} else if (this.currentInTransfer != null && cancelledTransferPacket.transferIdentifier.equals(this.currentInTransfer.getIdentifier())) {
-			this.currentInTransfer.confirmCancel();
-			this.currentInTransfer = null;
+		// A transfer cancelled by its sender is one of the local peer's incoming transfers, otherwise the receiver requests to cancel one of the outgoing transfers.
+		OutTransfer outTransfer = cancelledTransferPacket.isSentBySender ? null : this.findActiveOutTransfer(cancelledTransferPacket.transferIdentifier);
+		InTransfer inTransfer = cancelledTransferPacket.isSentBySender ? this.inTransfers.remove(cancelledTransferPacket.transferIdentifier) : null;
+		
+		if (outTransfer != null) {
+			this.cancelTransfer(outTransfer);
+		} else if (inTransfer != null) {
+			inTransfer.confirmCancel();
 		} else {
 			System.out.println("Received cancel request for an unknown transfer. The transfer was probably finnished before the cancel request was received.");
 		}
 	}
     /** Handles a data packet. */
 	private void handleData(DataPacket dataPacket) {
-		if (this.currentInTransfer == null) throw new Error("Received data, but there is no active in transfer.");
+		if (dataPacket == null) {
+			System.err.println("Received invalid packet.");
+			return;
+		}
+		
+		// Data of unknown transfers is discarded, but is processed as far as the remote side's window is concerned.
+		int dataLength = dataPacket.data.remaining();
+		InTransfer transfer = this.inTransfers.get(dataPacket.transferIdentifier);
+		if (transfer == null) {
+			System.err.println("Received data for an unknown transfer. The transfer was probably cancelled.");
+			this.flowController.onDataProcessed(dataLength);
+			return;
+		}
+		
+		// The transfer reports the data as processed once it passed it to the application, which may be later if the transfer is demand-driven.
+		transfer.updateWithReceivedData(dataPacket.data);
+		
+		// A demand-driven transfer completes only once its data was requested, but no more packets are expected once all data was received.
+		if (transfer.getIsAllDataTransmitted()) this.inTransfers.remove(transfer.getIdentifier());
+	}
+    /** Handles credit granted by the receiver of an outgoing transfer. */
+	private void handleTransferCredit(TransferCreditPacket transferCredit) {
+		if (transferCredit == null) {
+			System.err.println("Received invalid packet.");
+			return;
+		}
+		
+		OutTransfer transfer = this.findActiveOutTransfer(transferCredit.transferIdentifier);
+		// Credit may arrive after the transfer was sent completely.
+		if (transfer == null) return;
+		
+		transfer.grantCredit(transferCredit.creditLimit);
+		this.packetConnection.write();
+	}
+    /** Handles the end of a streamed transfer. */
+	private void handleEndedTransfer(EndedTransferPacket endedTransfer) {
+		if (endedTransfer == null) {
+			System.err.println("Received invalid packet.");
+			return;
+		}
+		
+		InTransfer transfer = this.inTransfers.get(endedTransfer.transferIdentifier);
+		if (transfer == null) {
+			System.err.println("Received the end of an unknown transfer. The transfer was probably cancelled.");
+			return;
+		}
+		if (transfer.getIsLengthKnown() || transfer.getProgress() != endedTransfer.transferLength) {
+			System.err.println("Received an invalid end of transfer, some data is missing. Cancelling the transfer.");
+			this.inTransfers.remove(transfer.getIdentifier());
+			transfer.confirmCancel();
+			return;
+		}
+		
+		this.inTransfers.remove(transfer.getIdentifier());
+		transfer.setLength(transfer.getProgress());
+		transfer.confirmCompletion();
+	}
+    /** Handles an inline message. If the handler does not accept it directly, it is delivered as a transfer that is completed immediately. */
+	private void handleInlineMessage(InlineMessagePacket messagePacket) {
+		if (messagePacket == null) {
+			System.err.println("Received invalid packet.");
+			return;
+		}
+		
+		int dataLength = messagePacket.data.remaining();
+		if (this.handler.notifyMessageReceived(messagePacket.data)) {
+			this.flowController.onDataProcessed(dataLength);
+			return;
+		}
 		
-		this.currentInTransfer.updateWithReceivedData(dataPacket.data);
+		// The transfer is not registered with the processor, and its identifier is never assigned by the remote side. It reports its data as processed once it was delivered.
+		InTransfer transfer = new InTransfer(this, dataLength, UNREGISTERED_TRANSFER_IDENTIFIER);
+		this.handler.notifyTransferStarted(transfer);
+		transfer.confirmStart();
+		transfer.updateWithReceivedData(messagePacket.data);
+	}
+    /** Returns the identifier for a new outgoing transfer. Identifiers wrap around, but skip the UNREGISTERED_TRANSFER_IDENTIFIER. */
+	private int assignTransferIdentifier() {
+		if (this.nextTransferIdentifier == UNREGISTERED_TRANSFER_IDENTIFIER) this.nextTransferIdentifier++;
 		
-		if (this.currentInTransfer.getIsCompleted()) this.currentInTransfer = null;
+		return this.nextTransferIdentifier++;
+	}
+    /** Returns the active outgoing transfer with a given identifier, or null if there is none. */
+	private OutTransfer findActiveOutTransfer(int identifier) {
+		for (OutTransfer transfer : this.activeOutTransfers) {
+			if (transfer.getIdentifier() == identifier) return transfer;
+		}
+		
+		return null;
 	}
 	
 	@Override
@@ -169,6 +534,9 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 		types.add(PacketType.TRANSFER_STARTED);
 		types.add(PacketType.CANCELLED_TRANSFER);
 		types.add(PacketType.DATA_PACKET);
+		types.add(PacketType.INLINE_MESSAGE);
+		types.add(PacketType.TRANSFER_ENDED);
+		types.add(PacketType.TRANSFER_CREDIT);
 		return types;
 	}
 	@Override
@@ -178,6 +546,9 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 			case TRANSFER_STARTED: handleStartedTransfer(StartedTransferPacket.deserialize(packet)); break;
 			case CANCELLED_TRANSFER: handleCancelledTransfer(CancelledTransferPacket.deserialize(packet)); break;
 			case DATA_PACKET: handleData(DataPacket.deserialize(packet)); break;
+			case TRANSFER_CREDIT: handleTransferCredit(TransferCreditPacket.deserialize(packet)); break;
+			case TRANSFER_ENDED: handleEndedTransfer(EndedTransferPacket.deserialize(packet)); break;
+			case INLINE_MESSAGE: handleInlineMessage(InlineMessagePacket.deserialize(packet)); break;
 			default: throw new IllegalArgumentException("Invalid type: "+type);
 		}
 	}
@@ -188,48 +559,119 @@ public class TransferProcessor implements PacketConnection.Handler, TransferMana
 		if (this.isInterrupted) return;
 		
 		this.isInterrupted = true;
-		if (this.currentInTransfer != null) this.currentInTransfer.setInterrupted(true);
-		if (this.currentOutTransfer != null) this.currentOutTransfer.setInterrupted(true);
+		// Packets that are acknowledged are sent again by the packet connection, so transfers in that direction continue where they left off.
+		if (!this.packetConnection.getIsReceivingSequencedPackets()) {
+			for (InTransfer transfer : this.inTransfers.values()) transfer.setInterrupted(true);
+		}
+		if (!this.packetConnection.getIsAcknowledgementEnabled()) {
+			for (OutTransfer transfer : this.activeOutTransfers) transfer.setInterrupted(true);
+			// Unsent packets are discarded when the underlying connection is swapped. Transfers are resumed using progress information, but messages need to be sent again.
+			this.pendingMessages.addAll(this.packetConnection.removeUnsentPackets(packet -> packet instanceof InlineMessagePacket));
+		}
 	}
 
 	@Override
 	public void onUnderlyingConnectionConnected(PacketConnection connection) {
-		if (!this.isInterrupted) return;
+		if (!this.isInterrupted && this.pendingMessages.isEmpty()) return;
 		
-		List<TransferProgressInformation> progressInformation = new ArrayList<TransferProgressInformation>();
-		
-		if (this.currentInTransfer != null) {
-			progressInformation.add(new TransferProgressInformation(this.currentInTransfer.getIdentifier(), this.currentInTransfer.getProgress()));
-			this.currentInTransfer.setInterrupted(false);
+		if (this.isInterrupted) {
+			List<TransferProgressInformation> progressInformation = new ArrayList<TransferProgressInformation>();
+			
+			for (InTransfer transfer : this.inTransfers.values()) {
+				if (!transfer.getIsInterrupted()) continue;
+				
+				progressInformation.add(new TransferProgressInformation(transfer.getIdentifier(), transfer.getProgress()));
+				transfer.setInterrupted(false);
+			}
+			
+			this.packetConnection.writePacket(new ProgressInformationPacket(progressInformation));
 		}
 		
-		this.packetConnection.writePacket(new ProgressInformationPacket(progressInformation));
+		for (Packet message : this.pendingMessages) this.packetConnection.writePacket(message);
+		this.pendingMessages.clear();
 		this.packetConnection.write();
 	}
 
 	@Override
 	public void onNoPacketsLeft(PacketConnection connection) {
-		if (this.isInterrupted) return;
-		int packetLength = 1024;
-		if (this.packetConnection.getUnderlyingConnection() != null) {
-			packetLength = this.packetConnection.getUnderlyingConnection().getRecommendedPacketSize();
+		// All messages that were queued with the packet connection were passed to the underlying connection.
+		this.unsentMessageBytes = 0;
+		for (Packet message : this.pendingMessages) this.unsentMessageBytes += ((InlineMessagePacket)message).data.remaining();
+		
+		if (this.isInterrupted) {
+			this.updateWritability();
+			return;
 		}
+		int packetLength = this.packetConnection.getRecommendedPacketSize();
 		
-		if (currentOutTransfer != null) {
-			this.packetConnection.writePacket(currentOutTransfer.nextPacket(packetLength));
-			
-			if (this.currentOutTransfer.getIsCompleted()) {
-				this.currentOutTransfer = null;
+		if (this.packetConnection.getIsBatchingEnabled()) {
+			// Queue packets until a full packet's worth of data is queued, so that small transfers can be combined into a single batch.
+			int queuedLength = 0;
+			while (queuedLength < packetLength) {
+				Packet packet = this.nextPacket(packetLength);
+				if (packet == null) break;
+				
+				queuedLength += packet.serializedSize();
+				this.packetConnection.writePacket(packet);
 			}
 		} else {
-			this.currentOutTransfer = this.outTransferQueue.poll();
+			Packet packet = this.nextPacket(packetLength);
+			if (packet != null) this.packetConnection.writePacket(packet);
+		}
+		
+		this.updateWritability();
+	}
+    /** 
+    * Returns the next packet to send, or null if there is nothing to send. Queued transfers are started as long as fewer than the maximum number of transfers are active,
+    * or if their priority exceeds that of all active transfers; otherwise, the active transfer whose turn it is sends a packet, 
+    * unless the remote side's receive window is used up.
+    */
+	private Packet nextPacket(int packetLength) {
+		OutTransfer queuedTransfer = this.outTransferQueue.peek();
+		OutTransfer activeTransfer = this.activeOutTransfers.peek();
+		
+		if (queuedTransfer != null && (this.activeOutTransfers.size() < this.maximumActiveTransfers || queuedTransfer.getPriority() > activeTransfer.getPriority())) {
+			this.outTransferQueue.poll();
+			this.queuedTransferBytes -= queuedLength(queuedTransfer);
+			this.activeOutTransfers.add(queuedTransfer);
+			queuedTransfer.confirmStart();
+			return new StartedTransferPacket(queuedTransfer.getIdentifier(), queuedTransfer.getLength());
+		}
+		
+		int availableLength = this.flowController.getAvailableSendLength();
+		if (availableLength == 0) return null;
+		packetLength = (int)Math.min(packetLength, (long)DataPacket.MINIMUM_LENGTH + availableLength);
+		
+		// Streams may be waiting for data to be written; the turn passes to the next transfer that has data available.
+		activeTransfer = null;
+		for (OutTransfer transfer : this.activeOutTransfers) {
+			if (!transfer.hasPacketAvailable()) continue;
 			
-			if (this.currentOutTransfer != null) {
-				this.currentOutTransfer.confirmStart();
-				this.packetConnection.writePacket(new StartedTransferPacket(this.currentOutTransfer.getIdentifier(), this.currentOutTransfer.getLength()));
-			}
+			activeTransfer = transfer;
+			break;
 		}
+		if (activeTransfer == null) return null;
+		
+		Packet packet = activeTransfer.nextPacket(packetLength);
+		activeTransfer.packetsSentInTurn++;
+		if (packet instanceof DataPacket) this.flowController.onDataSent(((DataPacket)packet).getDataLength());
+		
+		if (activeTransfer.getIsCompleted()) {
+			this.activeOutTransfers.remove(activeTransfer);
+		} else if (activeTransfer.packetsSentInTurn >= activeTransfer.getWeight()) {
+			activeTransfer.packetsSentInTurn = 0;
+			this.activeOutTransfers.remove(activeTransfer);
+			this.activeOutTransfers.add(activeTransfer);
+		}
+		
+		return packet;
 	}
+    /** The number of bytes a queued transfer contributes to the unsent bytes. Streams only count once they are active, since their length is unknown. */
+	private static int queuedLength(OutTransfer transfer) {
+		return transfer.getIsLengthKnown() ? transfer.getLength() : 0;
+	}
+	@Override
+	public void onUnderlyingConnectionWritabilityChanged(PacketConnection connection) {}
 	
 	public TransferProcessorHandler getHandler() {
 		return this.handler;
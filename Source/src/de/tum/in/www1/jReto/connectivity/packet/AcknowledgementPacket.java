@@ -0,0 +1,43 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* Acknowledges all SequencedPackets with a sequence number lower than the given one.
+*/
+public class AcknowledgementPacket implements Packet {
+	public final static PacketType TYPE = PacketType.ACKNOWLEDGEMENT;
+	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.INT_SIZE;
+	
+	public final int nextSequenceNumber;
+	
+	public AcknowledgementPacket(int nextSequenceNumber) {
+		this.nextSequenceNumber = nextSequenceNumber;
+	}
+	
+	public static AcknowledgementPacket deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
+		
+		return new AcknowledgementPacket(reader.getInt());
+	}
+	
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+		data.add(this.nextSequenceNumber);
+	}
+}
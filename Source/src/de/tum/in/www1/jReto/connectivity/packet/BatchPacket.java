@@ -0,0 +1,70 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* A BatchPacket carries several packets in a single frame, so that bursts of small packets do not each cost a write to the underlying connection.
+* Each contained packet is prefixed with its length.
+*/
+public class BatchPacket implements Packet {
+	public final static PacketType TYPE = PacketType.PACKET_BATCH;
+	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE + Constants.INT_SIZE;
+	
+	public final List<Packet> packets;
+	
+	public BatchPacket(List<Packet> packets) {
+		this.packets = packets;
+	}
+	
+    /** The number of bytes a packet occupies in a batch. */
+	public static int batchedSize(Packet packet) {
+		return Constants.INT_SIZE + packet.serializedSize();
+	}
+	
+    /** Returns the serialized packets contained in a batch, or null if the data is not a valid batch. */
+	public static List<ByteBuffer> deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, MINIMUM_LENGTH)) return null;
+		
+		int packetCount = reader.getInt();
+		if (packetCount < 0) return null;
+		List<ByteBuffer> packets = new ArrayList<>(packetCount);
+		
+		for (int i=0; i<packetCount; i++) {
+			if (!reader.checkRemaining(Constants.INT_SIZE)) return null;
+			int length = reader.getInt();
+			if (length < 0 || !reader.checkRemaining(length)) return null;
+			
+			packets.add(reader.getData(length));
+		}
+		
+		return packets;
+	}
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		int size = MINIMUM_LENGTH;
+		for (Packet packet : this.packets) size += batchedSize(packet);
+		return size;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+		data.add(this.packets.size());
+		
+		for (Packet packet : this.packets) {
+			data.add(packet.serializedSize());
+			packet.serializeInto(buffer);
+		}
+	}
+}
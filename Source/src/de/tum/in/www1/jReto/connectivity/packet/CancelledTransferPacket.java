@@ -1,7 +1,6 @@
 package de.tum.in.www1.jReto.connectivity.packet;
 
 import java.nio.ByteBuffer;
-import java.util.UUID;
 
 import de.tum.in.www1.jReto.packet.Constants;
 import de.tum.in.www1.jReto.packet.DataChecker;
@@ -12,28 +11,38 @@ import de.tum.in.www1.jReto.packet.PacketType;
 
 /**
 * Sent when a transfer was cancelled by the sender of a data transfer, or sent when the cancellation of a transfer is requested by the receiver of the data transfer.
+* Since each peer numbers the transfers it sends on its own, the packet indicates whose transfer the identifier refers to.
 */
 public class CancelledTransferPacket implements Packet {
 	public final static PacketType TYPE = PacketType.CANCELLED_TRANSFER;
-	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.UUID_SIZE;
+	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.TRANSFER_IDENTIFIER_SIZE + Constants.INT_SIZE;
 	
-	public final UUID transferIdentifier;
+	public final int transferIdentifier;
+    /** Whether the transfer is sent by the peer that sent this packet, i.e. whether the transfer was cancelled by its sender. */
+	public final boolean isSentBySender;
 	
-	public CancelledTransferPacket(UUID transferIdentifier) {
+	public CancelledTransferPacket(int transferIdentifier, boolean isSentBySender) {
 		this.transferIdentifier = transferIdentifier;
+		this.isSentBySender = isSentBySender;
 	}
 	
 	public static CancelledTransferPacket deserialize(ByteBuffer data) {
 		DataReader reader = new DataReader(data);
 		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
 		
-		return new CancelledTransferPacket(reader.getUUID());
+		return new CancelledTransferPacket(reader.getInt(), reader.getInt() != 0);
 	}
 	
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(LENGTH);
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.transferIdentifier);
-		return data.getData();
+		data.add(this.isSentBySender ? 1 : 0);
 	}
 }
@@ -22,9 +22,14 @@ public class CloseAnnounce implements Packet {
 		
 		return new CloseAnnounce();
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(LENGTH);
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
-		return data.getData();
 	}
 }
\ No newline at end of file
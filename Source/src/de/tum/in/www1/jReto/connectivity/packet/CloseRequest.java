@@ -23,9 +23,14 @@ public class CloseRequest implements Packet {
 		
 		return new CloseRequest();
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(LENGTH);
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
-		return data.getData();
 	}
 }
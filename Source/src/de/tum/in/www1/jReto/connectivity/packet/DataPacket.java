@@ -10,15 +10,18 @@ import de.tum.in.www1.jReto.packet.Packet;
 import de.tum.in.www1.jReto.packet.PacketType;
 
 /**
-* A DataPacket sends the payload data of a transfer.
+* A DataPacket sends the payload data of a transfer. It carries the identifier of the transfer it belongs to, so that packets of several transfers can be interleaved.
+* The payload is exposed separately from the header, so that it can be written to the network without being copied into the packet's buffer.
 */
 public class DataPacket implements Packet {
 	public final static PacketType TYPE = PacketType.DATA_PACKET;
-	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE;
+	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE + Constants.TRANSFER_IDENTIFIER_SIZE;
 	
+	public final int transferIdentifier;
 	public final ByteBuffer data;
 
-	public DataPacket(ByteBuffer data) {
+	public DataPacket(int transferIdentifier, ByteBuffer data) {
+		this.transferIdentifier = transferIdentifier;
 		this.data = data;
 	}
 	
@@ -26,12 +29,31 @@ public class DataPacket implements Packet {
 		DataReader reader = new DataReader(data);
 		if (!DataChecker.check(reader, TYPE, MINIMUM_LENGTH)) return null;
 		
-		return new DataPacket(reader.getRemainingData());
+		return new DataPacket(reader.getInt(), reader.getRemainingData());
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(MINIMUM_LENGTH + this.data.remaining());
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + this.getDataLength();
+	}
+    /** The length of the transfer data carried by this packet. */
+	public int getDataLength() {
+		return this.data.remaining();
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		this.serializeHeaderInto(buffer);
+		buffer.put(this.data.duplicate());
+	}
+	public int headerSize() {
+		return MINIMUM_LENGTH;
+	}
+	public void serializeHeaderInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
-		data.add(this.data);
-		return data.getData();
+		data.add(this.transferIdentifier);
+	}
+	public ByteBuffer getPayload() {
+		return this.data.duplicate();
 	}
 }
@@ -0,0 +1,46 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* Sent after the last DataPacket of a transfer whose length was not known when it was started, i.e. of a streamed transfer. 
+* It carries the transfer's final length, which allows the receiver to verify that no data is missing.
+*/
+public class EndedTransferPacket implements Packet {
+	public final static PacketType TYPE = PacketType.TRANSFER_ENDED;
+	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.TRANSFER_IDENTIFIER_SIZE + Constants.INT_SIZE;
+	
+	public final int transferIdentifier;
+	public final int transferLength;
+	
+	public EndedTransferPacket(int transferIdentifier, int transferLength) {
+		this.transferIdentifier = transferIdentifier;
+		this.transferLength = transferLength;
+	}
+	
+	public static EndedTransferPacket deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
+		
+		return new EndedTransferPacket(reader.getInt(), reader.getInt());
+	}
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+		data.add(this.transferIdentifier);
+		data.add(this.transferLength);
+	}
+}
@@ -0,0 +1,41 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.niotools.FileRegion;
+
+/**
+* A FileDataPacket is a DataPacket whose data is stored in a file. Instead of a payload buffer, it exposes the data as a FileRegion, 
+* so that connections that support it can send the data straight from the file. It is serialized exactly like a DataPacket, 
+* and received as one.
+*/
+public class FileDataPacket extends DataPacket {
+	public final FileRegion fileRegion;
+
+	public FileDataPacket(int transferIdentifier, FileRegion fileRegion) {
+		super(transferIdentifier, null);
+		
+		this.fileRegion = fileRegion;
+	}
+	
+	public int getDataLength() {
+		return this.fileRegion.length;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		this.serializeHeaderInto(buffer);
+		
+		try {
+			this.fileRegion.readInto(buffer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	public ByteBuffer getPayload() {
+		return null;
+	}
+	public FileRegion getFileRegion() {
+		return this.fileRegion;
+	}
+}
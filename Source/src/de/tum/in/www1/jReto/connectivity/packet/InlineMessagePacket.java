@@ -0,0 +1,53 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* An InlineMessagePacket carries a small message in a single packet. Unlike a transfer, it is not announced by a StartedTransferPacket and has no identifier;
+* the receiver delivers its payload directly.
+* The payload is exposed separately from the header, so that it can be written to the network without being copied into the packet's buffer.
+*/
+public class InlineMessagePacket implements Packet {
+	public final static PacketType TYPE = PacketType.INLINE_MESSAGE;
+	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE;
+	
+	public final ByteBuffer data;
+
+	public InlineMessagePacket(ByteBuffer data) {
+		this.data = data;
+	}
+	
+	public static InlineMessagePacket deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, MINIMUM_LENGTH)) return null;
+		
+		return new InlineMessagePacket(reader.getRemainingData());
+	}
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + this.data.remaining();
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		this.serializeHeaderInto(buffer);
+		buffer.put(this.data.duplicate());
+	}
+	public int headerSize() {
+		return MINIMUM_LENGTH;
+	}
+	public void serializeHeaderInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+	}
+	public ByteBuffer getPayload() {
+		return this.data.duplicate();
+	}
+}
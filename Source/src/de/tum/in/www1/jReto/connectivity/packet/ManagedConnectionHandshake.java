@@ -9,27 +9,65 @@ import de.tum.in.www1.jReto.packet.*;
 * A ManagedConnectionHandshake is sent once a connection was established with another peer. 
 * It contains the connections unique identifier, which is used to decide whether the new underlying connection should be used 
 * with an existing connection (e.g. in the case of a reconnect), or if a new Connection should be created.
+*
+* It also announces the protocol capabilities the establishing peer supports. Older peers do not send capabilities; their handshake is shorter, 
+* and is read as announcing none.
 */
 public class ManagedConnectionHandshake implements Packet {
 	public final static PacketType TYPE = PacketType.MANAGED_CONNECTION_HANDSHAKE;
-	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.UUID_SIZE;
+	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE + Constants.UUID_SIZE;
+	public final static int LENGTH = MINIMUM_LENGTH + Constants.INT_SIZE;
+	
+    /** Transfers are identified by 32 bit identifiers assigned by their sender instead of UUIDs. */
+	public final static int CAPABILITY_COMPACT_TRANSFER_IDENTIFIERS = 1 << 0;
+    /** 
+     * The establishing peer sequences its packets and expects them to be acknowledged, and asks the receiving peer to do the same. 
+     * Only announced for connections that have acknowledgements enabled.
+     * */
+	public final static int CAPABILITY_ACKNOWLEDGEMENTS = 1 << 1;
+    /** The capabilities announced for every connection. */
+	public final static int SUPPORTED_CAPABILITIES = CAPABILITY_COMPACT_TRANSFER_IDENTIFIERS;
+    /** The capabilities a remote peer needs to support, since this implementation has no fallback for them. */
+	public final static int REQUIRED_CAPABILITIES = CAPABILITY_COMPACT_TRANSFER_IDENTIFIERS;
 	
 	public final UUID connectionIdentifier;
+	public final int capabilities;
 	
 	public ManagedConnectionHandshake(UUID connectionIdentifier) {
+		this(connectionIdentifier, SUPPORTED_CAPABILITIES);
+	}
+	public ManagedConnectionHandshake(UUID connectionIdentifier, int capabilities) {
 		this.connectionIdentifier = connectionIdentifier;
+		this.capabilities = capabilities;
 	}
 	
 	public static ManagedConnectionHandshake deserialize(ByteBuffer data) {
 		DataReader reader = new DataReader(data);
-		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
+		if (!DataChecker.check(reader, TYPE, MINIMUM_LENGTH)) return null;
 		
-		return new ManagedConnectionHandshake(reader.getUUID());
+		UUID connectionIdentifier = reader.getUUID();
+		int capabilities = reader.checkRemaining(Constants.INT_SIZE) ? reader.getInt() : 0;
+		
+		return new ManagedConnectionHandshake(connectionIdentifier, capabilities);
+	}
+    /** Whether a capability is announced. */
+	public boolean hasCapability(int capability) {
+		return (this.capabilities & capability) == capability;
+	}
+    /** Whether all capabilities that are required by this implementation are announced. */
+	public boolean hasRequiredCapabilities() {
+		return this.hasCapability(REQUIRED_CAPABILITIES);
+	}
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return ManagedConnectionHandshake.LENGTH;
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(ManagedConnectionHandshake.LENGTH);
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.connectionIdentifier);
-		return data.getData();
+		data.add(this.capabilities);
 	}
 }
@@ -3,7 +3,6 @@ package de.tum.in.www1.jReto.connectivity.packet;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.UUID;
 
 import de.tum.in.www1.jReto.packet.Constants;
 import de.tum.in.www1.jReto.packet.DataChecker;
@@ -20,10 +19,10 @@ public class ProgressInformationPacket implements Packet {
 	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE + Constants.INT_SIZE;
 	
 	public static class TransferProgressInformation {
-		public final UUID transferIdentifier;
+		public final int transferIdentifier;
 		public final int progress;
 		
-		public TransferProgressInformation(UUID transferIdentifier, int progress) {
+		public TransferProgressInformation(int transferIdentifier, int progress) {
 			this.transferIdentifier = transferIdentifier;
 			this.progress = progress;
 		}
@@ -43,16 +42,22 @@ public class ProgressInformationPacket implements Packet {
 		int informationCount = reader.getInt();
 		HashSet<TransferProgressInformation> allInfo = new HashSet<>();
 
-		if (!reader.checkRemaining(informationCount * (Constants.UUID_SIZE + Constants.INT_SIZE))) return null;
+		if (!reader.checkRemaining(informationCount * (Constants.TRANSFER_IDENTIFIER_SIZE + Constants.INT_SIZE))) return null;
 		
 		for (int i=0; i<informationCount; i++) {
-			allInfo.add(new TransferProgressInformation(reader.getUUID(), reader.getInt()));
+			allInfo.add(new TransferProgressInformation(reader.getInt(), reader.getInt()));
 		}
 		
 		return new ProgressInformationPacket(allInfo);
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(MINIMUM_LENGTH + this.progressInformation.size() * (Constants.UUID_SIZE + Constants.INT_SIZE));
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + this.progressInformation.size() * (Constants.TRANSFER_IDENTIFIER_SIZE + Constants.INT_SIZE);
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.progressInformation.size());
 		
@@ -60,7 +65,5 @@ public class ProgressInformationPacket implements Packet {
 			data.add(information.transferIdentifier);
 			data.add(information.progress);
 		}
-
-		return data.getData();
 	}
 }
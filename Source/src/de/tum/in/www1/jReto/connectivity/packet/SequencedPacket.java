@@ -0,0 +1,84 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.niotools.FileRegion;
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* A SequencedPacket wraps a packet and assigns it a sequence number, which allows the receiver to acknowledge it and to discard packets that are received twice.
+* The sender may request the receiver to acknowledge the packet right away.
+*
+* A SequencedPacket that is sent holds the wrapped packet; a deserialized SequencedPacket holds the wrapped packet's serialized data.
+*/
+public class SequencedPacket implements Packet {
+	public final static PacketType TYPE = PacketType.SEQUENCED_PACKET;
+	public final static int MINIMUM_LENGTH = Constants.PACKET_TYPE_SIZE + Constants.INT_SIZE + Constants.INT_SIZE;
+	
+	public final int sequenceNumber;
+	public final boolean isAcknowledgementRequested;
+	/** The wrapped packet. Null for deserialized packets. */
+	public final Packet packet;
+	/** The wrapped packet's serialized data. Null for packets that are sent. */
+	public final ByteBuffer data;
+	
+	public SequencedPacket(int sequenceNumber, boolean isAcknowledgementRequested, Packet packet) {
+		this(sequenceNumber, isAcknowledgementRequested, packet, null);
+	}
+	private SequencedPacket(int sequenceNumber, boolean isAcknowledgementRequested, Packet packet, ByteBuffer data) {
+		this.sequenceNumber = sequenceNumber;
+		this.isAcknowledgementRequested = isAcknowledgementRequested;
+		this.packet = packet;
+		this.data = data;
+	}
+	
+	public static SequencedPacket deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, MINIMUM_LENGTH)) return null;
+		
+		int sequenceNumber = reader.getInt();
+		boolean isAcknowledgementRequested = reader.getInt() != 0;
+		
+		return new SequencedPacket(sequenceNumber, isAcknowledgementRequested, null, reader.getData(reader.getRemainingBytes()));
+	}
+	/** Returns a copy of this packet with a different acknowledgement request. */
+	public SequencedPacket withAcknowledgementRequested(boolean isAcknowledgementRequested) {
+		return new SequencedPacket(this.sequenceNumber, isAcknowledgementRequested, this.packet, this.data);
+	}
+	
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + this.packet.serializedSize();
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		this.serializeEnvelopeInto(buffer);
+		this.packet.serializeInto(buffer);
+	}
+	public int headerSize() {
+		return MINIMUM_LENGTH + this.packet.headerSize();
+	}
+	public void serializeHeaderInto(ByteBuffer buffer) {
+		this.serializeEnvelopeInto(buffer);
+		this.packet.serializeHeaderInto(buffer);
+	}
+	public ByteBuffer getPayload() {
+		return this.packet.getPayload();
+	}
+	public FileRegion getFileRegion() {
+		return this.packet.getFileRegion();
+	}
+	
+	private void serializeEnvelopeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+		data.add(this.sequenceNumber);
+		data.add(this.isAcknowledgementRequested ? 1 : 0);
+	}
+}
@@ -1,7 +1,6 @@
 package de.tum.in.www1.jReto.connectivity.packet;
 
 import java.nio.ByteBuffer;
-import java.util.UUID;
 
 import de.tum.in.www1.jReto.packet.Constants;
 import de.tum.in.www1.jReto.packet.DataChecker;
@@ -15,12 +14,12 @@ import de.tum.in.www1.jReto.packet.PacketType;
 */
 public class StartedTransferPacket implements Packet {	
 	public final static PacketType TYPE = PacketType.TRANSFER_STARTED;
-	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.UUID_SIZE + Constants.INT_SIZE;
+	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.TRANSFER_IDENTIFIER_SIZE + Constants.INT_SIZE;
 		
-	public final UUID transferIdentifier;
+	public final int transferIdentifier;
 	public final int transferLength;
 	
-	public StartedTransferPacket(UUID transferIdentifier, int transferLength) {
+	public StartedTransferPacket(int transferIdentifier, int transferLength) {
 		this.transferIdentifier = transferIdentifier;
 		this.transferLength = transferLength;
 	}
@@ -29,13 +28,18 @@ public class StartedTransferPacket implements Packet {
 		DataReader reader = new DataReader(data);
 		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
 		
-		return new StartedTransferPacket(reader.getUUID(), reader.getInt());
+		return new StartedTransferPacket(reader.getInt(), reader.getInt());
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(LENGTH);
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.transferIdentifier);
 		data.add(this.transferLength);
-		return data.getData();
 	}
 }
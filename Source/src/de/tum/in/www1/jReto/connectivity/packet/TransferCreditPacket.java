@@ -0,0 +1,46 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* Sent by the receiver of a transfer that is consumed on demand. It allows the sender to send the transfer's data up to a given offset.
+* Since the offset is absolute, a credit packet that is received late or twice does not grant additional data.
+*/
+public class TransferCreditPacket implements Packet {
+	public final static PacketType TYPE = PacketType.TRANSFER_CREDIT;
+	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + Constants.TRANSFER_IDENTIFIER_SIZE + Constants.INT_SIZE;
+	
+	public final int transferIdentifier;
+	public final int creditLimit;
+	
+	public TransferCreditPacket(int transferIdentifier, int creditLimit) {
+		this.transferIdentifier = transferIdentifier;
+		this.creditLimit = creditLimit;
+	}
+	
+	public static TransferCreditPacket deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
+		
+		return new TransferCreditPacket(reader.getInt(), reader.getInt());
+	}
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+		data.add(this.transferIdentifier);
+		data.add(this.creditLimit);
+	}
+}
@@ -0,0 +1,55 @@
+package de.tum.in.www1.jReto.connectivity.packet;
+
+import java.nio.ByteBuffer;
+
+import de.tum.in.www1.jReto.packet.Constants;
+import de.tum.in.www1.jReto.packet.DataChecker;
+import de.tum.in.www1.jReto.packet.DataReader;
+import de.tum.in.www1.jReto.packet.DataWriter;
+import de.tum.in.www1.jReto.packet.Packet;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+* Sent by the receiving side of a connection to announce its receive window. The sender may send data until the total length of the data it sent 
+* exceeds the processed length plus the window size. Lengths are counted since the connection was created and may wrap around.
+*/
+public class WindowUpdatePacket implements Packet {
+	public final static PacketType TYPE = PacketType.WINDOW_UPDATE;
+	public final static int LENGTH = Constants.PACKET_TYPE_SIZE + 3 * Constants.INT_SIZE;
+	
+    /** The total length of the data the receiver processed. */
+	public final int processedLength;
+    /** The number of bytes the sender may send beyond the processed length. */
+	public final int windowSize;
+    /** 
+    * Whether the sender should consider all data it sent to be processed. Sent after the underlying connection was swapped without acknowledgements, 
+    * since data that was lost would otherwise never be processed and reduce the window permanently.
+    */
+	public final boolean isReset;
+	
+	public WindowUpdatePacket(int processedLength, int windowSize, boolean isReset) {
+		this.processedLength = processedLength;
+		this.windowSize = windowSize;
+		this.isReset = isReset;
+	}
+	
+	public static WindowUpdatePacket deserialize(ByteBuffer data) {
+		DataReader reader = new DataReader(data);
+		if (!DataChecker.check(reader, TYPE, LENGTH)) return null;
+		
+		return new WindowUpdatePacket(reader.getInt(), reader.getInt(), reader.getInt() != 0);
+	}
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
+		data.add(TYPE);
+		data.add(this.processedLength);
+		data.add(this.windowSize);
+		data.add(this.isReset ? 1 : 0);
+	}
+}
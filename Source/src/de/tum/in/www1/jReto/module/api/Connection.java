@@ -1,6 +1,9 @@
 package de.tum.in.www1.jReto.module.api;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import de.tum.in.www1.jReto.niotools.FileRegion;
 
 /**
 * A moudle.api.Connection has the minimal necessary functionality that allows the implementation of Reto connections on top of it.
@@ -20,6 +23,8 @@ public interface Connection {
 		void onDataReceived(Connection connection, ByteBuffer data);
 	    /** Called for each writeData call, when it is complete. */
 		void onDataSent(Connection connection);
+	    /** Called when the value of isWritable changes. Connections that never become unwritable do not call this method. */
+		default void onWritabilityChanged(Connection connection) {}
 	}
 	
     /** Sets the connection's delegate. */
@@ -31,6 +36,14 @@ public interface Connection {
 	boolean isConnected();
     /** Reto sends packets which may vary in size. This property may return an ideal packet size that should be used if possible. */
 	int getRecommendedPacketSize();
+    /** The smallest packet size that is reasonable for this connection. Reto may adapt the packet size to the connection's throughput within these bounds. */
+	default int getMinimumPacketSize() {
+		return this.getRecommendedPacketSize();
+	}
+    /** The largest packet size that is reasonable for this connection. */
+	default int getMaximumPacketSize() {
+		return this.getRecommendedPacketSize();
+	}
 	
     /** Connects the connection. */
 	void connect();
@@ -39,4 +52,37 @@ public interface Connection {
 	
     /** Sends data using the connection. */
 	void writeData(ByteBuffer data);
+    /** 
+    * Sends the concatenation of several buffers as a single piece of data, i.e. the receiver receives it in a single onDataReceived call, and onDataSent is called once.
+    * Connections that support gathering writes should override this method to avoid copying the buffers; by default, they are copied into a single buffer.
+    */
+	default void writeData(ByteBuffer[] data) {
+		int length = 0;
+		for (ByteBuffer buffer : data) length += buffer.remaining();
+		
+		ByteBuffer concatenatedData = ByteBuffer.allocate(length);
+		concatenatedData.order(ByteOrder.LITTLE_ENDIAN);
+		for (ByteBuffer buffer : data) concatenatedData.put(buffer);
+		concatenatedData.flip();
+		
+		this.writeData(concatenatedData);
+	}
+    /** Whether the connection can send file data without reading it into memory, i.e. whether writeData(ByteBuffer[], FileRegion) may be called. */
+	default boolean isFileRegionSupported() {
+		return false;
+	}
+    /** 
+    * Sends the concatenation of several buffers and a region of a file as a single piece of data. Only called if isFileRegionSupported returns true; 
+    * connections that support it should transfer the file data directly from the file (e.g. using FileChannel.transferTo).
+    */
+	default void writeData(ByteBuffer[] data, FileRegion fileRegion) {
+		throw new UnsupportedOperationException("This connection does not support sending file regions.");
+	}
+    /** 
+    * Whether the connection can accept more data without excessive buffering. Data may still be written while the connection is not writable,
+    * but it will be queued in memory. Connections that do not buffer written data are always writable.
+    */
+	default boolean isWritable() {
+		return true;
+	}
 }
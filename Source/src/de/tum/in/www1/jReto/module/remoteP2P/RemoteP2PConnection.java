@@ -4,7 +4,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.websocket.ClientEndpointConfig;
 import javax.websocket.CloseReason;
@@ -22,11 +27,28 @@ import de.tum.in.www1.jReto.module.api.Connection;
 
 
 public class RemoteP2PConnection implements Connection {
+	/** Passes data to the web sockets of all RemoteP2PConnections, so that sending does not block the executor. */
+	private static final ExecutorService sendExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "RemoteP2PConnection sender");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	private final Executor executor;
 	private Connection.Handler handler;
 	private URI serverUri;
 	private boolean awaitConfirmation;
 	private Session dataSession;
+	/** 
+	 * Data that was written but not yet passed to the web socket. The web socket only accepts one asynchronous send at a time. 
+	 * Only accessed on the executor: writeData is called there, and send completions are dispatched to it.
+	 * */
+	private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>();
+	/** Whether a send is in progress. Only accessed on the executor, like pendingWrites. */
+	private boolean isSending = false;
 
 	public RemoteP2PConnection(Executor executor, URI serverUri, boolean awaitConfirmation) {
 		this.executor = executor;
@@ -51,23 +73,47 @@ public class RemoteP2PConnection implements Connection {
 		return 2048;
 	}
 	@Override
+	public int getMinimumPacketSize() {
+		return 1024;
+	}
+	@Override
+	public int getMaximumPacketSize() {
+		return 64*1024;
+	}
+	@Override
 	public void writeData(ByteBuffer data) {
 		if (!this.isConnected()) {
 			System.err.println("attempted to write before connection is open.");
 			return;
 		}
-		new Thread(() -> 
-		this.dataSession.getAsyncRemote().sendBinary(data, new SendHandler() {
+		
+		this.pendingWrites.add(data);
+		if (!this.isSending) this.sendNext();
+	}
+	private void sendNext() {
+		final ByteBuffer data = this.pendingWrites.poll();
+		if (data == null || !this.isConnected()) return;
+		
+		this.isSending = true;
+		final Session dataSession = this.dataSession;
+		sendExecutor.execute(new Runnable() {
 			@Override
-			public void onResult(SendResult arg0) {
-				RemoteP2PConnection.this.executor.execute(new Runnable() {
+			public void run() {
+				dataSession.getAsyncRemote().sendBinary(data, new SendHandler() {
 					@Override
-					public void run() {
-						if (RemoteP2PConnection.this.handler != null) RemoteP2PConnection.this.handler.onDataSent(RemoteP2PConnection.this);
+					public void onResult(SendResult arg0) {
+						RemoteP2PConnection.this.executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								RemoteP2PConnection.this.isSending = false;
+								RemoteP2PConnection.this.sendNext();
+								if (RemoteP2PConnection.this.handler != null) RemoteP2PConnection.this.handler.onDataSent(RemoteP2PConnection.this);
+							}
+						});
 					}
 				});
 			}
-		})).start();
+		});
 	}
 	
 	private void onOpen() {		
@@ -4,25 +4,25 @@ import java.net.InetAddress;
 
 import de.tum.in.www1.jReto.module.api.Address;
 import de.tum.in.www1.jReto.module.api.Connection;
-import de.tum.in.www1.jReto.niotools.Dispatcher;
+import de.tum.in.www1.jReto.niotools.DispatcherGroup;
 
 public class WlanAddress implements Address {
-	private Dispatcher dispatcher;
+	private DispatcherGroup dispatcherGroup;
 	private InetAddress address;
 	private int port;
 	
-	public WlanAddress(Dispatcher dispatcher, InetAddress address, int port) {
-		if (dispatcher == null) throw new IllegalArgumentException("dispatcher may not be null");
+	public WlanAddress(DispatcherGroup dispatcherGroup, InetAddress address, int port) {
+		if (dispatcherGroup == null) throw new IllegalArgumentException("dispatcherGroup may not be null");
 		if (address == null) throw new IllegalArgumentException("address may not be null");
 		
-		this.dispatcher = dispatcher;
+		this.dispatcherGroup = dispatcherGroup;
 		this.address = address;
 		this.port = port;
 	}
 	
 	@Override
 	public Connection createConnection() {
-		return new WlanConnection(this.dispatcher, this.address, this.port);
+		return new WlanConnection(this.dispatcherGroup.next(), this.address, this.port);
 	}
 
 	@Override
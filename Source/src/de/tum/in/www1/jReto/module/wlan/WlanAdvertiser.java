@@ -10,10 +10,12 @@ import javax.jmdns.ServiceInfo;
 
 import de.tum.in.www1.jReto.module.api.Advertiser;
 import de.tum.in.www1.jReto.niotools.Dispatcher;
+import de.tum.in.www1.jReto.niotools.DispatcherGroup;
 
 public class WlanAdvertiser implements Advertiser {
 	private Handler handler;
-	private Dispatcher dispatcher;
+	private DispatcherGroup dispatcherGroup;
+	private Dispatcher serverDispatcher;
 	private ServerSocketChannel serverSocketChannel;
 	private boolean advertising;
 	
@@ -23,14 +25,14 @@ public class WlanAdvertiser implements Advertiser {
 	private ServiceInfo serviceInfo;
 
 	
-	public WlanAdvertiser(Dispatcher dispatcher, String networkType) {
-		if (dispatcher == null) throw new IllegalArgumentException("dispatcher may not be null");
+	public WlanAdvertiser(DispatcherGroup dispatcherGroup, String networkType) {
+		if (dispatcherGroup == null) throw new IllegalArgumentException("dispatcherGroup may not be null");
 		if (networkType == null) throw new IllegalArgumentException("networkType may not be null");
 
 		this.advertising = false;
 		this.networkType = networkType;
 		
-		this.dispatcher = dispatcher;
+		this.dispatcherGroup = dispatcherGroup;
 		
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 		    public void run() {
@@ -47,7 +49,7 @@ public class WlanAdvertiser implements Advertiser {
 		try {
 			SocketChannel channel = serverChannelSocket.accept();
 			if (channel != null) {
-				this.handler.onConnection(this, new WlanConnection(this.dispatcher, channel));
+				this.handler.onConnection(this, new WlanConnection(this.dispatcherGroup.next(), channel));
 			}
 		} catch (IOException e) {
 			System.err.println("Failed to accept socket.");
@@ -81,7 +83,8 @@ public class WlanAdvertiser implements Advertiser {
 			this.serverSocketChannel.socket().bind(null);
 			this.serverSocketChannel.configureBlocking(false);
 
-			this.dispatcher.registerAcceptHandler(
+			this.serverDispatcher = this.dispatcherGroup.next();
+			this.serverDispatcher.registerAcceptHandler(
 					new Dispatcher.AcceptHandler<ServerSocketChannel>() {
 						public void onAcceptable(ServerSocketChannel serverChannelSocket) {
 							WlanAdvertiser.this.onAccept(serverChannelSocket);
@@ -111,7 +114,7 @@ public class WlanAdvertiser implements Advertiser {
 	@Override
 	public void stopAdvertising() {
 		try {
-			this.dispatcher.unregister(this.serverSocketChannel);
+			this.serverDispatcher.unregister(this.serverSocketChannel);
 			this.serverSocketChannel.close();
 			this.bonjourServer.unregisterService(this.serviceInfo);
 			this.bonjourServer.close();
@@ -12,12 +12,12 @@ import javax.jmdns.ServiceInfo;
 import javax.jmdns.ServiceListener;
 
 import de.tum.in.www1.jReto.module.api.Browser;
-import de.tum.in.www1.jReto.niotools.Dispatcher;
+import de.tum.in.www1.jReto.niotools.DispatcherGroup;
 
 public class WlanBrowser implements Browser, ServiceListener {
 	private Browser.Handler handler;
 	private Executor executor;
-	private Dispatcher dispatcher;
+	private DispatcherGroup dispatcherGroup;
 	private boolean browsing;
 	
 	private JmDNS bonjourBrowser;
@@ -25,12 +25,12 @@ public class WlanBrowser implements Browser, ServiceListener {
 	private String networkType;
 	private Map<String, WlanAddress> addresses;
 	
-	public WlanBrowser(Executor executor, Dispatcher dispatcher, String networkType) {
+	public WlanBrowser(Executor executor, DispatcherGroup dispatcherGroup, String networkType) {
 		if (executor == null) throw new IllegalArgumentException("dispatcher may not be null");
 		if (networkType == null) throw new IllegalArgumentException("networkType may not be null");
 		
 		this.executor = executor;
-		this.dispatcher = dispatcher;
+		this.dispatcherGroup = dispatcherGroup;
 		this.networkType = networkType;
 		
 		this.addresses = new HashMap<String, WlanAddress>();
@@ -115,7 +115,7 @@ public class WlanBrowser implements Browser, ServiceListener {
 		if (info.getInetAddresses() == null) {
 			return;
 		}
-		final WlanAddress address = new WlanAddress(this.dispatcher, info.getInetAddresses()[0], info.getPort());
+		final WlanAddress address = new WlanAddress(this.dispatcherGroup, info.getInetAddresses()[0], info.getPort());
 		this.addresses.put(info.getName(), address);
 		
 		this.executor.execute(new Runnable() {
@@ -6,18 +6,20 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
 
 import de.tum.in.www1.jReto.module.api.Connection;
 import de.tum.in.www1.jReto.niotools.ChannelReader;
 import de.tum.in.www1.jReto.niotools.ChannelWriter;
 import de.tum.in.www1.jReto.niotools.Dispatcher;
+import de.tum.in.www1.jReto.niotools.FileRegion;
+import de.tum.in.www1.jReto.niotools.PooledBuffer;
 import de.tum.in.www1.jReto.niotools.ChannelReader.CloseHandler;
 import de.tum.in.www1.jReto.niotools.ChannelReader.ReadHandler;
 import de.tum.in.www1.jReto.niotools.ChannelWriter.WriteHandler;
 
 public class WlanConnection implements Connection, ReadHandler, CloseHandler, WriteHandler {
-	public final int PACKET_LENGTH_FIELD_LENGTH = 4;
-	
 	private Handler handler;
 	private Dispatcher dispatcher;
 	private InetAddress address;
@@ -26,9 +28,14 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 	private SocketChannel socketChannel;
 	private ChannelReader channelReader;
 	private ChannelWriter channelWriter;
-	
-	private boolean readingPacketLength;
-	private boolean writingPacketLength;
+	/** 
+	 * The length headers of frames that are currently being written, in order. They are returned to the dispatcher's BufferPool once their frame was written. 
+	 * Guarded by the lengthHeaderLock, which is held while a frame is passed to the channel writer so that the headers stay in the order of the frames.
+	 * */
+	private final Queue<PooledBuffer> pendingLengthHeaders = new ArrayDeque<PooledBuffer>();
+	private final Object lengthHeaderLock = new Object();
+	/** Whether writing to the socket failed, in which case frames are discarded. Guarded by the lengthHeaderLock. */
+	private boolean isWriteFailed;
 	
 	public WlanConnection(Dispatcher dispatcher, InetAddress address, int port) {
 		if (dispatcher == null) throw new IllegalArgumentException("dispatcher may not be null");
@@ -38,9 +45,6 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 		this.address = address;
 		this.port = port;
 		this.isConnected = false;
-		
-		this.readingPacketLength = true;
-		this.writingPacketLength = true;
 	}
 	
 	public WlanConnection(Dispatcher dispatcher, SocketChannel channel) {
@@ -53,16 +57,13 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 		this.isConnected = true; 
 		this.socketChannel = channel;
 		
-		this.readingPacketLength = true;
-		this.writingPacketLength = true;
-		
 		try {
 			channel.configureBlocking(false);
 			
 			this.channelReader = new ChannelReader(channel, this.dispatcher, this, this);
 			this.channelWriter = new ChannelWriter(channel, this.dispatcher, this);
 			
-			this.channelReader.read(PACKET_LENGTH_FIELD_LENGTH);
+			this.channelReader.start();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -88,6 +89,14 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 	public int getRecommendedPacketSize() {
 		return 32*1024;
 	}
+	@Override
+	public int getMinimumPacketSize() {
+		return 4*1024;
+	}
+	@Override
+	public int getMaximumPacketSize() {
+		return 128*1024;
+	}
 
 	@Override
 	public void connect() {
@@ -99,7 +108,7 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 			this.channelReader = new ChannelReader(socketChannel, this.dispatcher, this, this);
 			this.channelWriter = new ChannelWriter(socketChannel, this.dispatcher, this);
 			
-			this.channelReader.read(PACKET_LENGTH_FIELD_LENGTH);
+			this.channelReader.start();
 			
 			this.isConnected = true;
 			if (this.handler != null) this.handler.onConnect(this);
@@ -110,6 +119,7 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 	public void close() {
 		try {
 			this.isConnected = false;
+			if (this.socketChannel != null) this.dispatcher.unregister(this.socketChannel);
 			this.socketChannel.close();
 			if (this.handler != null) this.handler.onClose(this);
 		} catch (IOException e) {
@@ -122,15 +132,68 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 	public void writeData(ByteBuffer data) {
 		if (data.remaining() == 0) throw new IllegalArgumentException("data buffer needs to have more than 0 bytes remaining.");
 		
-		data.order(ByteOrder.LITTLE_ENDIAN);
+		this.writeFrame(new ByteBuffer[] { null, data }, null, data.remaining());
+	}
+	
+	@Override
+	public void writeData(ByteBuffer[] data) {
+		if (data.length + 1 > ChannelWriter.MAXIMUM_GATHERED_BUFFERS) throw new IllegalArgumentException("data may not consist of more than "+(ChannelWriter.MAXIMUM_GATHERED_BUFFERS - 1)+" buffers.");
+		
+		int length = 0;
+		for (ByteBuffer buffer : data) length += buffer.remaining();
+		if (length == 0) throw new IllegalArgumentException("data buffers need to have more than 0 bytes remaining.");
+		
+		ByteBuffer[] frame = new ByteBuffer[data.length + 1];
+		System.arraycopy(data, 0, frame, 1, data.length);
+		this.writeFrame(frame, null, length);
+	}
+	
+	@Override
+	public boolean isFileRegionSupported() {
+		return true;
+	}
+	/**
+	 * Writes the buffers, followed by the file region's data, which is transferred from the file to the socket by the operating system.
+	 * */
+	@Override
+	public void writeData(ByteBuffer[] data, FileRegion fileRegion) {
+		if (data.length + 1 > ChannelWriter.MAXIMUM_GATHERED_BUFFERS) throw new IllegalArgumentException("data may not consist of more than "+(ChannelWriter.MAXIMUM_GATHERED_BUFFERS - 1)+" buffers.");
+		
+		int length = fileRegion.length;
+		for (ByteBuffer buffer : data) length += buffer.remaining();
+		if (length == 0) throw new IllegalArgumentException("data buffers and file region need to have more than 0 bytes.");
 		
-		ByteBuffer lengthBuffer = ByteBuffer.allocate(PACKET_LENGTH_FIELD_LENGTH);
+		ByteBuffer[] frame = new ByteBuffer[data.length + 1];
+		System.arraycopy(data, 0, frame, 1, data.length);
+		this.writeFrame(frame, fileRegion, length);
+	}
+	
+	/**
+	 * Writes a frame whose first buffer is left empty for the length header, optionally followed by file data.
+	 * */
+	private void writeFrame(ByteBuffer[] frame, FileRegion fileRegion, int length) {
+		PooledBuffer lengthHeader = this.dispatcher.getBufferPool().acquire(ChannelReader.LENGTH_FIELD_LENGTH);
+		ByteBuffer lengthBuffer = lengthHeader.getBuffer();
 		lengthBuffer.order(ByteOrder.LITTLE_ENDIAN);
-		lengthBuffer.putInt(data.remaining());
-		lengthBuffer.clear();
+		lengthBuffer.putInt(length);
+		lengthBuffer.flip();
+		frame[0] = lengthBuffer;
 		
-		this.channelWriter.write(lengthBuffer);
-		this.channelWriter.write(data);
+		// The channel writer never calls its handler from within write(), so the lock is not held during any callbacks.
+		synchronized (this.lengthHeaderLock) {
+			if (this.isWriteFailed) {
+				lengthHeader.release();
+				return;
+			}
+			
+			this.pendingLengthHeaders.add(lengthHeader);
+			this.channelWriter.write(frame, fileRegion);
+		}
+	}
+
+	@Override
+	public boolean isWritable() {
+		return this.channelWriter == null || this.channelWriter.isWritable();
 	}
 
 	@Override
@@ -141,29 +204,34 @@ public class WlanConnection implements Connection, ReadHandler, CloseHandler, Wr
 
 	@Override
 	public void onRead(ByteBuffer byteBuffer) {
-		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.handler.onDataReceived(this, byteBuffer);
+	}
 
-		if (this.readingPacketLength) {
-			this.readingPacketLength = false;
-			
-			int packetLength = byteBuffer.getInt();
-			this.channelReader.read(packetLength);
-		} else {
-			this.readingPacketLength = true;
-			
-			this.handler.onDataReceived(this, byteBuffer);
-			
-			this.channelReader.read(PACKET_LENGTH_FIELD_LENGTH);
+	@Override
+	public void onCompletedWriteRequest() {
+		synchronized (this.lengthHeaderLock) {
+			this.pendingLengthHeaders.poll().release();
 		}
+		
+		this.handler.onDataSent(this);
 	}
 
 	@Override
-	public void onCompletedWriteRequest() {
-		if (this.writingPacketLength) {
-			this.writingPacketLength = false;
-		} else {
-			this.handler.onDataSent(this);
-			this.writingPacketLength = true;
+	public void onWritabilityChanged(boolean isWritable) {
+		if (this.handler != null) this.handler.onWritabilityChanged(this);
+	}
+	
+	/**
+	 * The channel writer dropped all frames that were not completed, so their length headers are released and the connection is closed.
+	 * */
+	@Override
+	public void onWriteFailed(IOException exception) {
+		synchronized (this.lengthHeaderLock) {
+			this.isWriteFailed = true;
+			for (PooledBuffer lengthHeader : this.pendingLengthHeaders) lengthHeader.release();
+			this.pendingLengthHeaders.clear();
 		}
+		
+		this.close();
 	}
 }
@@ -6,7 +6,11 @@ import java.util.concurrent.Executor;
 import de.tum.in.www1.jReto.module.api.Advertiser;
 import de.tum.in.www1.jReto.module.api.Browser;
 import de.tum.in.www1.jReto.module.api.Module;
-import de.tum.in.www1.jReto.niotools.Dispatcher;
+import de.tum.in.www1.jReto.niotools.BufferPool;
+import de.tum.in.www1.jReto.niotools.ChannelReader;
+import de.tum.in.www1.jReto.niotools.ChannelWriter;
+import de.tum.in.www1.jReto.niotools.DispatcherGroup;
+import de.tum.in.www1.jReto.niotools.SizeClassBufferPool;
 
 /**
  * Using a WlanModule with the LocalPeer allows it to discover and connect with other peers on the local network using Bonjour.
@@ -17,6 +21,13 @@ public class WlanModule implements Module {
 	private WlanAdvertiser advertiser;
 	private WlanBrowser browser;
 	private String networkType;
+	private final int selectorThreadCount;
+	private final DispatcherGroup.Assignment channelAssignment;
+	private final BufferPool bufferPool;
+	private int maximumBytesPerRead = ChannelReader.DEFAULT_MAXIMUM_BYTES_PER_READ;
+	private int maximumFramesPerRead = ChannelReader.DEFAULT_MAXIMUM_FRAMES_PER_READ;
+	private int lowWriteWatermark = ChannelWriter.DEFAULT_LOW_WATERMARK;
+	private int highWriteWatermark = ChannelWriter.DEFAULT_HIGH_WATERMARK;
 	
     /**
     * Constructs a new WlanModule that can be used with a LocalPeer. 
@@ -24,7 +35,63 @@ public class WlanModule implements Module {
     * @param dispatchQueue: The dispatch queue used with this module. Use the same one as you used with the LocalPeer.
     */
 	public WlanModule(String networkType) throws IOException {
+		this(networkType, 1, DispatcherGroup.Assignment.ROUND_ROBIN);
+	}
+    /**
+    * Constructs a new WlanModule that can be used with a LocalPeer, using multiple selector threads for its sockets.
+    * @param type: Any alphanumeric string used to identify the type of application in the network. Can be anything, but should be unique for the application.
+    * @param selectorThreadCount: The number of selector threads used to handle the module's sockets. Peers with many connections (e.g. relay peers) may benefit from more than one.
+    * @param channelAssignment: The strategy used to assign sockets to selector threads.
+    */
+	public WlanModule(String networkType, int selectorThreadCount, DispatcherGroup.Assignment channelAssignment) throws IOException {
+		this(networkType, selectorThreadCount, channelAssignment, SizeClassBufferPool.SHARED);
+	}
+    /**
+    * Constructs a new WlanModule that can be used with a LocalPeer, using multiple selector threads for its sockets and a specific BufferPool for socket I/O.
+    * @param type: Any alphanumeric string used to identify the type of application in the network. Can be anything, but should be unique for the application.
+    * @param selectorThreadCount: The number of selector threads used to handle the module's sockets. Peers with many connections (e.g. relay peers) may benefit from more than one.
+    * @param channelAssignment: The strategy used to assign sockets to selector threads.
+    * @param bufferPool: The pool that read buffers and frame headers are allocated from, e.g. a SizeClassBufferPool that allocates direct buffers.
+    */
+	public WlanModule(String networkType, int selectorThreadCount, DispatcherGroup.Assignment channelAssignment, BufferPool bufferPool) throws IOException {
+		if (selectorThreadCount <= 0) throw new IllegalArgumentException("selectorThreadCount needs to be > 0");
+		if (channelAssignment == null) throw new IllegalArgumentException("channelAssignment may not be null");
+		if (bufferPool == null) throw new IllegalArgumentException("bufferPool may not be null");
+		
 		this.networkType = networkType;
+		this.selectorThreadCount = selectorThreadCount;
+		this.channelAssignment = channelAssignment;
+		this.bufferPool = bufferPool;
+	}
+	
+	/**
+	 * Sets how much is read from a single socket before the module's other sockets get their turn. Needs to be called before the module is used with a LocalPeer.
+	 * 
+	 * @param maximumBytesPerRead The maximum number of bytes read from a socket per readiness event. Defaults to 1 MB.
+	 * @param maximumFramesPerRead The maximum number of packets handed out per readiness event. Defaults to 256.
+	 * */
+	public void setReadBudget(int maximumBytesPerRead, int maximumFramesPerRead) {
+		if (maximumBytesPerRead <= 0) throw new IllegalArgumentException("maximumBytesPerRead needs to be > 0");
+		if (maximumFramesPerRead <= 0) throw new IllegalArgumentException("maximumFramesPerRead needs to be > 0");
+		
+		this.maximumBytesPerRead = maximumBytesPerRead;
+		this.maximumFramesPerRead = maximumFramesPerRead;
+	}
+	
+	/**
+	 * Sets the watermarks of the data queued in a socket's send buffer. A connection whose socket has more than the high watermark queued reports itself as unwritable 
+	 * until it drops to the low watermark. Needs to be called before the module is used with a LocalPeer. 
+	 * These are separate from the watermarks set with the Connection's setWriteBufferWatermarks, which apply to data that was not yet passed to the socket.
+	 * 
+	 * @param lowWatermark The number of queued bytes at which a socket becomes writable again. Defaults to 64 KB.
+	 * @param highWatermark The number of queued bytes above which a socket becomes unwritable. Defaults to 256 KB.
+	 * */
+	public void setSocketWriteWatermarks(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0) throw new IllegalArgumentException("lowWatermark may not be negative");
+		if (highWatermark < lowWatermark) throw new IllegalArgumentException("highWatermark may not be smaller than lowWatermark");
+		
+		this.lowWriteWatermark = lowWatermark;
+		this.highWriteWatermark = highWatermark;
 	}
 	
 	@Override
@@ -40,13 +107,15 @@ public class WlanModule implements Module {
 	@Override
 	public void setExecutor(Executor executor) {
 		try {
-			Dispatcher dispatcher = new Dispatcher(executor);
-			this.advertiser = new WlanAdvertiser(dispatcher, networkType);
-			this.browser = new WlanBrowser(executor, dispatcher, networkType);
+			DispatcherGroup dispatcherGroup = new DispatcherGroup(executor, this.selectorThreadCount, this.channelAssignment, this.bufferPool);
+			dispatcherGroup.setReadBudget(this.maximumBytesPerRead, this.maximumFramesPerRead);
+			dispatcherGroup.setWriteWatermarks(this.lowWriteWatermark, this.highWriteWatermark);
+			this.advertiser = new WlanAdvertiser(dispatcherGroup, networkType);
+			this.browser = new WlanBrowser(executor, dispatcherGroup, networkType);
 			
-			dispatcher.start();
+			dispatcherGroup.start();
 		} catch (IOException e) {
-			System.err.println("Error occured when instantiating dispatcher.");
+			System.err.println("Error occured when instantiating dispatchers.");
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
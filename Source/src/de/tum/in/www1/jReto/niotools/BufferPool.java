@@ -0,0 +1,19 @@
+package de.tum.in.www1.jReto.niotools;
+
+/**
+ * A BufferPool hands out ByteBuffers that can be returned and reused once they are no longer needed, so that data moving through
+ * the I/O stack does not produce a new buffer for every packet.
+ *
+ * Buffers are handed out as PooledBuffers, which are reference counted; a buffer is returned to its pool when the last reference is released.
+ * */
+public interface BufferPool {
+	/**
+	 * Returns a buffer that can hold at least the given number of bytes. The buffer's position is 0, its limit is the requested length,
+	 * its byte order is little endian, and the PooledBuffer has a reference count of 1.
+	 * */
+	PooledBuffer acquire(int length);
+	/**
+	 * Called by a PooledBuffer that was acquired from this pool once its last reference was released. Should not be called directly.
+	 * */
+	void recycle(PooledBuffer buffer);
+}
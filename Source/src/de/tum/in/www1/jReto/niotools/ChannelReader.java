@@ -2,10 +2,23 @@ package de.tum.in.www1.jReto.niotools;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
-import java.util.Queue;
 
+/**
+ * Reads length prefixed frames from a SocketChannel. Each frame starts with a 4 byte little endian length field, followed by that many bytes of payload.
+ *
+ * As much data as available is read into a large read buffer, and all complete frames it contains are passed to the ReadHandler as slices of that buffer
+ * (without the length field). Thus, many small frames cost a single read call. Reading continues until the socket is drained or a per-event budget
+ * of bytes and frames is used up, so that a single busy socket does not starve the other channels of its Dispatcher. The budget is taken from the Dispatcher
+ * (see Dispatcher.setReadBudget); it is checked after each read, so a single read may exceed it.
+ * Once a slice was handed out, the bytes it references are never overwritten; when the read buffer is full, a new one is allocated and any incomplete frame
+ * is moved there. Handlers may therefore keep the slices they receive.
+ *
+ * Read buffers are acquired from the Dispatcher's BufferPool. A read buffer is only returned to the pool if none of its frames were handed out
+ * (e.g. when it is replaced by a larger buffer for a large frame, or when the channel closes); otherwise it is left to the garbage collector,
+ * since handlers may still reference its frames.
+ * */
 public class ChannelReader implements Dispatcher.ReadHandler<SocketChannel> {
 	public static interface ReadHandler {
 		public void onRead(ByteBuffer byteBuffer);
@@ -13,81 +26,192 @@ public class ChannelReader implements Dispatcher.ReadHandler<SocketChannel> {
 	public static interface CloseHandler {
 		public void onClose();
 	}
-	
+
+	/** The length of the length field that precedes each frame. */
+	public static final int LENGTH_FIELD_LENGTH = 4;
+	/** The default size of the read buffer. */
+	public static final int DEFAULT_BUFFER_SIZE = 64*1024;
+	/** The default maximum number of bytes read in response to a single readiness event. */
+	public static final int DEFAULT_MAXIMUM_BYTES_PER_READ = 1024*1024;
+	/** The default maximum number of frames handed out in response to a single readiness event. */
+	public static final int DEFAULT_MAXIMUM_FRAMES_PER_READ = 256;
+
 	public final SocketChannel socketChannel;
 	public final Dispatcher dispatcher;
 	public final ReadHandler handler;
 	public final CloseHandler closeHandler;
-	
-	private final Queue<Integer> readRequests;
-	private ByteBuffer currentBuffer;
+
+	private final int bufferSize;
+	private final BufferPool bufferPool;
+	/** The pooled buffer that backs the current read buffer. */
+	private PooledBuffer pooledReadBuffer;
+	/** The current read buffer. Bytes between frameStart and the buffer's position have been read but not yet been handed out. */
+	private ByteBuffer readBuffer;
+	/** The offset of the first byte of the next frame in the read buffer. */
+	private int frameStart;
+	/** Whether a slice of the current read buffer was handed out, in which case its contents may not be overwritten. */
+	private boolean isReadBufferShared;
+	private boolean isStarted;
+	private final int maximumBytesPerRead;
+	private final int maximumFramesPerRead;
 
 	public ChannelReader(SocketChannel socketChannel, Dispatcher dispatcher, ReadHandler readHandler, CloseHandler closeHandler) {
+		this(socketChannel, dispatcher, readHandler, closeHandler, DEFAULT_BUFFER_SIZE);
+	}
+	public ChannelReader(SocketChannel socketChannel, Dispatcher dispatcher, ReadHandler readHandler, CloseHandler closeHandler, int bufferSize) {
 		if (socketChannel == null) throw new IllegalArgumentException("socketChannel may not be null");
 		if (dispatcher == null) throw new IllegalArgumentException("dispatcher may not be null");
 		if (readHandler == null) throw new IllegalArgumentException("readHandler may not be null");
 		if (closeHandler == null) throw new IllegalArgumentException("closeHandler may not be null");
-		
-		this.readRequests = new LinkedList<Integer>();
+		if (bufferSize <= LENGTH_FIELD_LENGTH) throw new IllegalArgumentException("bufferSize needs to be larger than the length field");
+
 		this.socketChannel = socketChannel;
 		this.dispatcher = dispatcher;
 		this.handler = readHandler;
 		this.closeHandler = closeHandler;
+		this.bufferSize = bufferSize;
+		this.bufferPool = dispatcher.getBufferPool();
+		this.maximumBytesPerRead = dispatcher.getMaximumBytesPerRead();
+		this.maximumFramesPerRead = dispatcher.getMaximumFramesPerRead();
+		this.allocateReadBuffer(bufferSize);
 	}
-	
-	public void read(int length) {
-		if (length <= 0) throw new IllegalArgumentException("length may not be <= 0");
-		
-		if (this.readRequests.size() == 0 && currentBuffer == null) this.dispatcher.registerReadHandler(this, this.socketChannel);
-			
-		this.readRequests.add(length);
-		
-		processReadRequests();
+
+	/**
+	 * Starts reading frames. The ReadHandler is called for every frame that is received until the channel closes.
+	 * */
+	public void start() {
+		if (this.isStarted) return;
+
+		this.isStarted = true;
+		this.dispatcher.registerReadHandler(this, this.socketChannel);
 	}
-	
-	private void processReadRequests() {
-		if (this.currentBuffer != null || readRequests.size() == 0) return;
-		
-		int length = readRequests.poll();
-		this.currentBuffer = ByteBuffer.allocate(length);
+
+	/**
+	 * Acquires a new read buffer with at least the given size. Any capacity the pool rounds up to is used as well.
+	 * */
+	private void allocateReadBuffer(int size) {
+		this.pooledReadBuffer = this.bufferPool.acquire(size);
+		this.readBuffer = this.pooledReadBuffer.getBuffer();
+		this.readBuffer.clear();
+		this.readBuffer.order(ByteOrder.LITTLE_ENDIAN);
 	}
-	
-	private void readFromSocket() {		
-		if (this.currentBuffer == null) return;
+
+	/**
+	 * Reads until the socket is drained, or until the byte or frame budget for a single readiness event is used up.
+	 * In the latter case, the remaining data is read in the next event, so that other channels of the Dispatcher get their turn in between.
+	 * */
+	private void readFromSocket() {
 		if (!this.socketChannel.isConnected()) {
 			System.out.println("Socket not connected, cannot read.");
 			return;
 		}
-		int bytesRead = -1;
-		
-		try {
-			bytesRead = this.socketChannel.read(this.currentBuffer);
-		} catch (IOException e1) {
-			System.err.println("Exception occurred while reading from the socket. Closing the socket now.");
-			e1.printStackTrace();
-		}
-		
-		if (bytesRead==-1) {
+		int remainingBytes = this.maximumBytesPerRead;
+		int remainingFrames = this.maximumFramesPerRead;
+
+		while (remainingBytes > 0 && remainingFrames > 0 && this.socketChannel.isOpen()) {
+			int bytesRead = -1;
+
 			try {
-				this.dispatcher.unregister(this.socketChannel);
-				this.socketChannel.close();
-			} catch (IOException e) {
-				System.err.println("Exception occurred while closing connection. Continuing anyway.");
-				e.printStackTrace();
-			} finally {
-				this.closeHandler.onClose();
+				bytesRead = this.socketChannel.read(this.readBuffer);
+			} catch (IOException e1) {
+				System.err.println("Exception occurred while reading from the socket. Closing the socket now.");
+				e1.printStackTrace();
 			}
-		} else if (!this.currentBuffer.hasRemaining()) {
-			this.currentBuffer.clear();
-			this.handler.onRead(this.currentBuffer);
-			this.currentBuffer = null;
-			
-			if (this.readRequests.size() == 0) this.dispatcher.unregisterRead(this.socketChannel);
+
+			if (bytesRead == -1) {
+				this.close();
+				return;
+			}
+			if (bytesRead == 0) return;
+
+			// A read that did not fill the buffer drained the socket; stop without another read that would return 0.
+			boolean isDrained = this.readBuffer.hasRemaining();
+
+			remainingBytes -= bytesRead;
+			remainingFrames -= this.processFrames();
+
+			if (isDrained) return;
+		}
+	}
+
+	/**
+	 * Hands out all complete frames in the read buffer, and makes sure that there is enough space to read the rest of the next frame.
+	 * Returns the number of frames that were handed out.
+	 * */
+	private int processFrames() {
+		int requiredLength = LENGTH_FIELD_LENGTH;
+		int frameCount = 0;
+
+		while (this.readBuffer.position() - this.frameStart >= LENGTH_FIELD_LENGTH) {
+			int frameLength = this.readBuffer.getInt(this.frameStart);
+
+			if (frameLength < 0) {
+				System.err.println("Received a frame with invalid length "+frameLength+". Closing the socket now.");
+				this.close();
+				return frameCount;
+			}
+
+			requiredLength = LENGTH_FIELD_LENGTH + frameLength;
+			if (this.readBuffer.position() - this.frameStart < requiredLength) break;
+
+			ByteBuffer frame = this.readBuffer.duplicate();
+			frame.limit(this.frameStart + requiredLength);
+			frame.position(this.frameStart + LENGTH_FIELD_LENGTH);
+			frame = frame.slice();
+			frame.order(ByteOrder.LITTLE_ENDIAN);
+
+			this.frameStart += requiredLength;
+			requiredLength = LENGTH_FIELD_LENGTH;
+			this.isReadBufferShared = true;
+			frameCount++;
+
+			this.handler.onRead(frame);
+		}
+
+		if (this.frameStart + requiredLength > this.readBuffer.capacity()) this.replaceReadBuffer(requiredLength);
+		return frameCount;
+	}
+
+	/**
+	 * Moves the incomplete frame at the end of the read buffer to the start of a read buffer that can hold at least requiredLength bytes.
+	 * The current buffer is reused if none of its contents were handed out.
+	 * */
+	private void replaceReadBuffer(int requiredLength) {
+		this.readBuffer.flip();
+		this.readBuffer.position(this.frameStart);
+
+		if (this.isReadBufferShared || this.readBuffer.capacity() < requiredLength) {
+			PooledBuffer pooledPendingData = this.pooledReadBuffer;
+			ByteBuffer pendingData = this.readBuffer;
+			this.allocateReadBuffer(Math.max(this.bufferSize, requiredLength));
+			this.readBuffer.put(pendingData);
 			
-			processReadRequests();
+			if (!this.isReadBufferShared) pooledPendingData.release();
+		} else {
+			this.readBuffer.compact();
+		}
+
+		this.frameStart = 0;
+		this.isReadBufferShared = false;
+	}
+
+	private void close() {
+		if (!this.isReadBufferShared && this.pooledReadBuffer != null) {
+			this.pooledReadBuffer.release();
+			this.pooledReadBuffer = null;
+		}
+		
+		try {
+			this.dispatcher.unregister(this.socketChannel);
+			this.socketChannel.close();
+		} catch (IOException e) {
+			System.err.println("Exception occurred while closing connection. Continuing anyway.");
+			e.printStackTrace();
+		} finally {
+			this.closeHandler.onClose();
 		}
 	}
-	
+
 	public void onReadable(SocketChannel socket) {
 		this.readFromSocket();
 	}
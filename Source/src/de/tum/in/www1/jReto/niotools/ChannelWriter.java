@@ -2,73 +2,336 @@ package de.tum.in.www1.jReto.niotools;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
 
+/**
+ * Writes frames to a SocketChannel. A frame consists of one or more ByteBuffers (e.g. a length header and a payload) that are written as a unit;
+ * the WriteHandler is notified once per frame when all of its buffers were written.
+ *
+ * All buffers of all queued frames are written using a single gathering write whenever the socket is writable, so that a header and its payload
+ * (or several small frames) do not cost a system call each.
+ * 
+ * The write handler stays registered with the Dispatcher once the first frame was written; afterwards, only the interest in writability is toggled
+ * when the queue fills or drains.
+ * 
+ * When nothing is queued, a new frame is first written directly on the calling thread; only the part the socket could not take is queued
+ * and waits for writability. This saves a selector round trip for small frames.
+ * 
+ * A frame may end with a FileRegion, whose data is sent using FileChannel.transferTo instead of being read into memory. Since file data can not be part of 
+ * a gathering write, frames that follow a FileRegion are only gathered once it was transferred completely.
+ * 
+ * Frames may be written from any thread; the writer synchronizes with the Dispatcher's write events. The WriteHandler is never called while the writer's
+ * lock is held, so that handlers may write to other ChannelWriters (e.g. when relaying data between two channels) without risking a deadlock.
+ * 
+ * The writer counts the bytes of queued frames. Once they exceed the high watermark, the writer becomes unwritable, and stays so until
+ * the queued bytes drop to the low watermark. The watermarks are taken from the Dispatcher (see Dispatcher.setWriteWatermarks). Writing while unwritable is still possible; producers should use the writability signal to stop producing data.
+ * 
+ * The WriteHandler is only called from onWriteable, i.e. on the channel's strand of the Dispatcher, never from within write(). 
+ * Completions and writability changes that happen elsewhere (e.g. a frame that was written directly) are reported by signaling the write handler. 
+ * Several changes of the writability are reported once, with the current writability.
+ * 
+ * If writing to the socket fails, the writer stops: all queued frames are dropped, the interest in writability is cleared and the WriteHandler's 
+ * onWriteFailed is called once. Frames written afterwards are discarded.
+ * */
 public class ChannelWriter implements Dispatcher.WriteHandler<SocketChannel> {
+	/** A queued frame. */
+	private static class WriteRequest {
+		final ByteBuffer[] buffers;
+		/** The file data that follows the buffers, or null. */
+		final FileRegion fileRegion;
+		/** The number of bytes of the FileRegion that were transferred. */
+		long transferredFileLength;
+
+		WriteRequest(ByteBuffer[] buffers, FileRegion fileRegion) {
+			this.buffers = buffers;
+			this.fileRegion = fileRegion;
+		}
+
+		boolean hasRemainingFileData() {
+			return this.fileRegion != null && this.transferredFileLength < this.fileRegion.length;
+		}
+		boolean hasRemaining() {
+			return ChannelWriter.hasRemaining(this.buffers) || this.hasRemainingFileData();
+		}
+	}
+
 	public static interface WriteHandler {
 		void onCompletedWriteRequest();
+		/** Called when the queued bytes cross the high watermark (isWritable is false) or drop back to the low watermark (isWritable is true). */
+		void onWritabilityChanged(boolean isWritable);
+		/** Called once when writing to the socket failed. Frames that were not completed before are dropped and will not be reported as completed. */
+		void onWriteFailed(IOException exception);
 	}
-	
+
+	/** The maximum number of buffers passed to a single gathering write. */
+	public static final int MAXIMUM_GATHERED_BUFFERS = 64;
+	/** The default number of queued bytes above which the writer becomes unwritable. */
+	public static final int DEFAULT_HIGH_WATERMARK = 256*1024;
+	/** The default number of queued bytes at which an unwritable writer becomes writable again. */
+	public static final int DEFAULT_LOW_WATERMARK = 64*1024;
+
 	public final SocketChannel socketChannel;
-	public final Queue<ByteBuffer> writeRequests;
+	private final Queue<WriteRequest> writeRequests;
 	public final Dispatcher dispatcher;
 	public final WriteHandler writeHandler;
-	
-	private ByteBuffer currentBuffer;
-	
+
+	private final ByteBuffer[] gatheredBuffers;
+	private boolean isRegistered;
+	/** The number of bytes in writeRequests that were not yet written. */
+	private long queuedBytes;
+	private final int highWatermark;
+	private final int lowWatermark;
+	private boolean isWritable = true;
+	/** Whether the writability changed since the handler was last notified. Set even if it changed back, since a producer may have seen the change. */
+	private boolean isWritabilityChanged;
+	/** The number of completed frames the handler was not yet notified about. */
+	private int unnotifiedCompletions;
+	/** Whether the write handler was signaled to deliver notifications and did not run yet. */
+	private boolean isNotificationScheduled;
+	/** The exception that caused writing to fail, or null. */
+	private IOException writeFailure;
+	/** Whether the handler was notified about the writeFailure. */
+	private boolean isWriteFailureNotified;
+
 	public ChannelWriter(SocketChannel socketChannel, Dispatcher dispatcher, WriteHandler writeHandler) {
 		if (socketChannel == null) throw new IllegalArgumentException("socketChannel may not be null");
 		if (dispatcher == null) throw new IllegalArgumentException("dispatcher may not be null");
-		
+		if (writeHandler == null) throw new IllegalArgumentException("writeHandler may not be null");
+
 		this.socketChannel = socketChannel;
 		this.dispatcher = dispatcher;
 		this.writeHandler = writeHandler;
-		
-		writeRequests = new LinkedList<ByteBuffer>();
+		this.highWatermark = dispatcher.getHighWriteWatermark();
+		this.lowWatermark = dispatcher.getLowWriteWatermark();
+
+		this.writeRequests = new LinkedList<WriteRequest>();
+		this.gatheredBuffers = new ByteBuffer[MAXIMUM_GATHERED_BUFFERS];
 	}
-	
-	public void write(ByteBuffer buffer) {		
-		if (buffer == null) throw new IllegalArgumentException("buffer may not be null");
-		if (!buffer.hasRemaining()) throw new IllegalArgumentException("Attempted to write a buffer with no remaining bytes. Did you forget to call clear()?");
 
-		if (this.writeRequests.size() == 0 && this.currentBuffer == null) {
-			this.dispatcher.registerWriteHandler(this, this.socketChannel);
+	/**
+	 * Whether the number of queued bytes is below the high watermark, i.e. whether more frames should be written.
+	 * */
+	public synchronized boolean isWritable() {
+		return this.isWritable;
+	}
+	public synchronized long getQueuedBytes() {
+		return this.queuedBytes;
+	}
+
+	/**
+	 * Writes a frame, or queues it if it cannot be written immediately. The buffers are written in order; onCompletedWriteRequest is called once all of them have been written.
+	 * */
+	public void write(ByteBuffer... buffers) {
+		this.write(buffers, null);
+	}
+	/**
+	 * Writes a frame that consists of buffers followed by the data of a FileRegion, or queues it if it cannot be written immediately. 
+	 * onCompletedWriteRequest is called once all of it has been written.
+	 * 
+	 * @param buffers The buffers to write before the file data.
+	 * @param fileRegion The file data to write after the buffers, or null.
+	 * */
+	public synchronized void write(ByteBuffer[] buffers, FileRegion fileRegion) {
+		if (buffers == null || buffers.length == 0) throw new IllegalArgumentException("buffers may not be null or empty");
+		if (buffers.length > MAXIMUM_GATHERED_BUFFERS) throw new IllegalArgumentException("A frame may not consist of more than "+MAXIMUM_GATHERED_BUFFERS+" buffers");
+
+		for (ByteBuffer buffer : buffers) {
+			if (buffer == null) throw new IllegalArgumentException("buffer may not be null");
+		}
+		WriteRequest request = new WriteRequest(buffers, fileRegion);
+		if (!request.hasRemaining()) throw new IllegalArgumentException("Attempted to write a frame with no remaining bytes. Did you forget to call clear()?");
+		if (this.writeFailure != null) return;
+
+		if (this.writeRequests.size() == 0 && this.writeDirectly(request)) {
+			this.scheduleNotification();
+			return;
 		}
+		if (this.writeFailure != null) return;
 
-		writeRequests.add(buffer);
-		processWriteRequests();
+		long frameLength = 0;
+		for (ByteBuffer buffer : buffers) frameLength += buffer.remaining();
+		if (fileRegion != null) frameLength += fileRegion.length - request.transferredFileLength;
+
+		if (this.writeRequests.size() == 0) {
+			if (this.isRegistered) {
+				this.dispatcher.setInterest(this.socketChannel, SelectionKey.OP_WRITE, true);
+			} else {
+				this.isRegistered = true;
+				this.dispatcher.registerWriteHandler(this, this.socketChannel);
+			}
+		}
+
+		this.writeRequests.add(request);
+		this.queuedBytes += frameLength;
+		this.updateWritability();
+		if (this.isWritabilityChanged) this.scheduleNotification();
 	}
-	
-	private void processWriteRequests() {
-		if (currentBuffer != null || writeRequests.size() == 0) return;
 
-		currentBuffer = writeRequests.poll();
+	/**
+	 * Attempts to write a frame without waiting for writability. Returns true if the whole frame was written.
+	 * */
+	private boolean writeDirectly(WriteRequest request) {
+		try {
+			this.socketChannel.write(request.buffers);
+		} catch (IOException e) {
+			this.fail(e);
+			return false;
+		}
+
+		if (!hasRemaining(request.buffers)) this.transferFileData(request);
+
+		if (this.writeFailure != null || request.hasRemaining()) return false;
+
+		this.unnotifiedCompletions++;
+		return true;
 	}
-	
-	private void processCurrentBuffer() {
-		if (currentBuffer == null) return;
+
+	/**
+	 * Signals the write handler, so that onWriteable delivers pending notifications on the channel's strand.
+	 * */
+	private void scheduleNotification() {
+		if (this.isNotificationScheduled) return;
+		
+		this.isNotificationScheduled = true;
+		if (!this.isRegistered) {
+			this.isRegistered = true;
+			this.dispatcher.registerWriteHandler(this, this.socketChannel);
+		}
+		this.dispatcher.signal(this.socketChannel, SelectionKey.OP_WRITE);
+	}
+
+	private void processWriteRequests() {
+		if (this.writeRequests.size() == 0) {
+			this.dispatcher.setInterest(this.socketChannel, SelectionKey.OP_WRITE, false);
+			return;
+		}
+
+		int bufferCount = 0;
+		for (WriteRequest request : this.writeRequests) {
+			if (bufferCount + request.buffers.length > MAXIMUM_GATHERED_BUFFERS) break;
+
+			for (ByteBuffer buffer : request.buffers) this.gatheredBuffers[bufferCount++] = buffer;
+			if (request.fileRegion != null) break;
+		}
 
 		try {
-			socketChannel.write(currentBuffer);
+			this.queuedBytes -= this.socketChannel.write(this.gatheredBuffers, 0, bufferCount);
 		} catch (IOException e) {
-			System.err.println("An error occured while trying to write to the socket.");
-			e.printStackTrace();
+			this.fail(e);
+		} finally {
+			Arrays.fill(this.gatheredBuffers, 0, bufferCount, null);
+		}
+
+		while (this.writeRequests.size() != 0) {
+			WriteRequest request = this.writeRequests.peek();
+			if (!hasRemaining(request.buffers)) this.queuedBytes -= this.transferFileData(request);
+			if (this.writeFailure != null || request.hasRemaining()) break;
+			
+			this.writeRequests.poll();
+			this.unnotifiedCompletions++;
 		}
+		this.updateWritability();
+
+		if (this.writeRequests.size() == 0) this.dispatcher.setInterest(this.socketChannel, SelectionKey.OP_WRITE, false);
+	}
+
+	/**
+	 * Stops writing after an error: drops all queued frames, clears the interest in writability and schedules the handler's notification.
+	 * Only the first error is reported.
+	 * */
+	private void fail(IOException exception) {
+		if (this.writeFailure != null) return;
+		
+		System.err.println("An error occured while trying to write to the socket. Dropping all queued frames.");
+		exception.printStackTrace();
+		
+		this.writeFailure = exception;
+		this.writeRequests.clear();
+		this.queuedBytes = 0;
+		this.updateWritability();
+		if (this.isRegistered) this.dispatcher.setInterest(this.socketChannel, SelectionKey.OP_WRITE, false);
+		this.scheduleNotification();
+	}
+
+	/**
+	 * Updates the writability according to the queued bytes. The handler is notified about changes by notifyHandler.
+	 * */
+	private void updateWritability() {
+		boolean isWritable = this.isWritable ? this.queuedBytes <= this.highWatermark : this.queuedBytes <= this.lowWatermark;
+		if (isWritable == this.isWritable) return;
 		
-		if (!currentBuffer.hasRemaining()) {
-			currentBuffer = null;
+		this.isWritable = isWritable;
+		this.isWritabilityChanged = true;
+	}
+	/**
+	 * Notifies the handler about completed frames and a changed writability. Called on the channel's strand without holding the writer's lock.
+	 * */
+	private void notifyHandler() {
+		int completions;
+		boolean isWritable;
+		boolean isWritabilityChanged;
+		IOException writeFailure = null;
+		
+		synchronized (this) {
+			this.isNotificationScheduled = false;
+			
+			completions = this.unnotifiedCompletions;
+			this.unnotifiedCompletions = 0;
 			
-			this.writeHandler.onCompletedWriteRequest();
+			isWritable = this.isWritable;
+			isWritabilityChanged = this.isWritabilityChanged;
+			this.isWritabilityChanged = false;
 			
-			if (this.writeRequests.size() == 0) this.dispatcher.unregisterWrite(this.socketChannel);
+			if (this.writeFailure != null && !this.isWriteFailureNotified) {
+				this.isWriteFailureNotified = true;
+				writeFailure = this.writeFailure;
+			}
 		}
 		
-		processWriteRequests();
+		for (int i=0; i<completions; i++) this.writeHandler.onCompletedWriteRequest();
+		if (isWritabilityChanged) this.writeHandler.onWritabilityChanged(isWritable);
+		if (writeFailure != null) this.writeHandler.onWriteFailed(writeFailure);
 	}
-	
-	public void onWriteable(SocketChannel socket) {	
-		processCurrentBuffer();
+
+	/**
+	 * Transfers as much of a request's file data to the socket as it takes. Returns the number of bytes transferred.
+	 * */
+	private long transferFileData(WriteRequest request) {
+		long transferredLength = 0;
+
+		try {
+			while (request.hasRemainingFileData()) {
+				long length = request.fileRegion.transferTo(request.transferredFileLength, this.socketChannel);
+				if (length == 0) break;
+
+				request.transferredFileLength += length;
+				transferredLength += length;
+			}
+		} catch (IOException e) {
+			// The failure dropped the request and reset the queued bytes.
+			this.fail(e);
+			return 0;
+		}
+
+		return transferredLength;
+	}
+
+	private static boolean hasRemaining(ByteBuffer[] frame) {
+		for (ByteBuffer buffer : frame) {
+			if (buffer.hasRemaining()) return true;
+		}
+
+		return false;
+	}
+
+	public void onWriteable(SocketChannel socket) {
+		synchronized (this) {
+			this.processWriteRequests();
+		}
+		this.notifyHandler();
 	}
 }
@@ -1,6 +1,7 @@
 package de.tum.in.www1.jReto.niotools;
 
 import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.InterruptibleChannel;
 import java.nio.channels.SelectableChannel;
@@ -8,9 +9,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Method overview:
@@ -23,6 +24,18 @@ import java.util.concurrent.LinkedBlockingQueue;
  * stop - stops the run loop
  * register* - register a callback for a certain event of a SocketChannel.
  * unregister* - unregisters a callback for a certain event of a SocketChannel.
+ * 
+ * setInterest - enables or disables interest in an operation of a channel while keeping its handler registered. Can be called from any thread.
+ * Use this for events that toggle frequently (e.g. writability), since it does not need to dispatch a runnable, and wakes up the selector only when interest is enabled.
+ * 
+ * signal - calls the handler registered for an operation of a channel as if the operation became ready. Can be called from any thread.
+ * Use this to run work of a handler in order with the channel's other events, e.g. to notify about something that happened on another thread.
+ * 
+ * Handlers are called on the executor passed to the constructor. The executor may be multi-threaded: the events of each channel are executed serially and in order, 
+ * while events of different channels may be handled in parallel.
+ * 
+ * Each Dispatcher carries the BufferPool that readers and writers of its channels should allocate their buffers from, 
+ * as well as the read budget and write watermarks that ChannelReaders and ChannelWriters of its channels use.
  * */
 public class Dispatcher {
 	public static interface AcceptHandler<T> {
@@ -39,22 +52,36 @@ public class Dispatcher {
 	}
 	public static interface Handler<T> extends AcceptHandler<T>, ConnectHandler<T>, WriteHandler<T>, ReadHandler<T> {}
 	
-	private final static int[] ALL_OPERATIONS = {SelectionKey.OP_ACCEPT, SelectionKey.OP_CONNECT, SelectionKey.OP_READ, SelectionKey.OP_WRITE};
-
 	private final Selector selector;
-	private final ConcurrentHashMap<Integer, HashMap<SelectableChannel, HandlerDispatcher<?>>> handlersByChannelByOperation;
 	private final Executor executor;
+	private final BufferPool bufferPool;
 	private final LinkedBlockingQueue<Runnable> runnables;
+	/** Guards read-modify-write updates of interest ops, which can happen from the dispatcher's thread and any thread calling setInterest. */
+	private final Object interestOpsLock = new Object();
+	/** The number of interest updates per channel that had to be dispatched and were not yet performed. Later updates need to be dispatched as well to keep their order. Guarded by itself. */
+	private final HashMap<SelectableChannel, Integer> pendingInterestUpdates;
+	/** The read budget of ChannelReaders created for this dispatcher's channels. See setReadBudget. */
+	private volatile int maximumBytesPerRead = ChannelReader.DEFAULT_MAXIMUM_BYTES_PER_READ;
+	private volatile int maximumFramesPerRead = ChannelReader.DEFAULT_MAXIMUM_FRAMES_PER_READ;
+	/** The write watermarks of ChannelWriters created for this dispatcher's channels. See setWriteWatermarks. */
+	private volatile int lowWriteWatermark = ChannelWriter.DEFAULT_LOW_WATERMARK;
+	private volatile int highWriteWatermark = ChannelWriter.DEFAULT_HIGH_WATERMARK;
+	/** The number of registered channels. Used to balance channels between the dispatchers of a DispatcherGroup. Only modified from the dispatcher's thread. */
+	private volatile int channelCount = 0;
 
 	private boolean isCurrentlyRunning = false;
 	
-	public Dispatcher(Executor executor) throws IOException {		
+	public Dispatcher(Executor executor) throws IOException {
+		this(executor, SizeClassBufferPool.SHARED);
+	}
+	public Dispatcher(Executor executor, BufferPool bufferPool) throws IOException {
+		if (bufferPool == null) throw new IllegalArgumentException("bufferPool may not be null");
+		
 		this.selector = Selector.open();
 		this.executor = executor;
+		this.bufferPool = bufferPool;
 		this.runnables = new LinkedBlockingQueue<Runnable>();
-
-		this.handlersByChannelByOperation = new ConcurrentHashMap<Integer, HashMap<SelectableChannel,HandlerDispatcher<?>>>();
-		for (int operation : ALL_OPERATIONS) this.handlersByChannelByOperation.put(operation, new HashMap<SelectableChannel, HandlerDispatcher<?>>());
+		this.pendingInterestUpdates = new HashMap<SelectableChannel, Integer>();
 	}
 	
 	private void dispatch(Runnable runnable) {
@@ -85,11 +112,22 @@ public class Dispatcher {
 		register(channel, SelectionKey.OP_WRITE, new HandlerWriteDispatcher<T>(handler, channel));
 	}
 	
-	public void unregister(SelectableChannel channel) {
+	public void unregister(final SelectableChannel channel) {
 		unregisterAccept(channel);
 		unregisterConnect(channel);
 		unregisterRead(channel);
 		unregisterWrite(channel);
+		
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				SelectionKey key = channel.keyFor(selector);
+				if (key == null || key.attachment() == null) return;
+				
+				key.attach(null);
+				Dispatcher.this.channelCount--;
+			}
+		});
 	}	
 	public void unregisterAccept(SelectableChannel channel) {
 		unregister(channel, SelectionKey.OP_ACCEPT);
@@ -104,6 +142,97 @@ public class Dispatcher {
 		unregister(channel, SelectionKey.OP_WRITE);
 	}
 	
+	/**
+	 * Enables or disables interest in an operation for a channel, without changing the handler registered for that operation. 
+	 * The handler needs to be registered (or its registration needs to be pending) when this method is called. Can be called from any thread.
+	 * */
+	public void setInterest(final SelectableChannel channel, final int operation, final boolean isInterested) {
+		SelectionKey key = channel.keyFor(this.selector);
+		
+		synchronized (this.pendingInterestUpdates) {
+			Integer pendingUpdates = this.pendingInterestUpdates.get(channel);
+			
+			if (key == null || pendingUpdates != null) {
+				// The channel's registration is not complete yet, so the update needs to be performed in the dispatcher's thread after it. 
+				this.pendingInterestUpdates.put(channel, pendingUpdates == null ? 1 : pendingUpdates + 1);
+				this.dispatch(new Runnable() {
+					@Override
+					public void run() {
+						Dispatcher.this.updateInterestOps(channel.keyFor(selector), operation, isInterested);
+						Dispatcher.this.completePendingInterestUpdate(channel);
+					}
+				});
+				
+				return;
+			}
+		}
+		
+		if (this.updateInterestOps(key, operation, isInterested) && isInterested) this.selector.wakeup();
+	}
+	
+	/**
+	 * Calls the handler registered for an operation of a channel as if the operation became ready. The handler is called on the channel's strand, 
+	 * i.e. serially with the channel's other events. If the handler's registration is still pending, it is signaled once the registration is complete. 
+	 * Can be called from any thread.
+	 * */
+	public void signal(final SelectableChannel channel, final int operation) {
+		if (this.signalRegistration(channel, operation)) return;
+		
+		// The handler's registration is not complete yet, so the signal needs to be delivered in the dispatcher's thread after it.
+		this.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				// If the handler was unregistered in the meantime, there is nobody left to signal.
+				Dispatcher.this.signalRegistration(channel, operation);
+			}
+		});
+	}
+	
+	/**
+	 * Dispatches an operation to the channel's registration. Returns false if no handler is registered for the operation.
+	 * */
+	private boolean signalRegistration(SelectableChannel channel, int operation) {
+		SelectionKey key = channel.keyFor(this.selector);
+		if (key == null) return false;
+		
+		ChannelRegistration registration = (ChannelRegistration)key.attachment();
+		if (registration == null || !registration.hasHandlerDispatcher(operation)) return false;
+		
+		registration.dispatch(operation);
+		return true;
+	}
+	
+	private void completePendingInterestUpdate(SelectableChannel channel) {
+		synchronized (this.pendingInterestUpdates) {
+			int pendingUpdates = this.pendingInterestUpdates.get(channel);
+			
+			if (pendingUpdates == 1) {
+				this.pendingInterestUpdates.remove(channel);
+			} else {
+				this.pendingInterestUpdates.put(channel, pendingUpdates - 1);
+			}
+		}
+	}
+	
+	/**
+	 * Updates a key's interest ops. Returns whether the interest ops were changed.
+	 * */
+	private boolean updateInterestOps(SelectionKey key, int operation, boolean isInterested) {
+		if (key == null) return false;
+		
+		synchronized (this.interestOpsLock) {
+			if (!key.isValid()) return false;
+			
+			int ops = key.interestOps();
+			int updatedOps = isInterested ? ops | operation : ops & ~operation;
+			
+			if (ops == updatedOps) return false;
+			
+			key.interestOps(updatedOps);
+			return true;
+		}
+	}
+	
 	/**
 	 * Registration has to happen in the thread that does select. So the dispatcher has it's own little action queue so we can 
 	 * do the registration in that thread.
@@ -116,20 +245,23 @@ public class Dispatcher {
 			@Override
 			public void run() {
 				try {
-					Dispatcher.this.handlersByChannelByOperation.get(operation).put(channel, handlerDispatcher);	
-					int interestOps = 0;
-					SelectionKey key = channel.keyFor(selector);
-
-					if (key != null) {
-						interestOps = key.interestOps();
+					synchronized (Dispatcher.this.interestOpsLock) {
+						SelectionKey key = channel.keyFor(selector);
+	
+						if (key == null) {
+							key = channel.register(selector, operation);
+						} else {
+							key.interestOps(key.interestOps() | operation);
+						}
+						
+						if (key.attachment() == null) {
+							key.attach(new ChannelRegistration(Dispatcher.this.executor));
+							Dispatcher.this.channelCount++;
+						}
+						((ChannelRegistration)key.attachment()).setHandlerDispatcher(operation, handlerDispatcher);
 					}
-					
-					final int registeredInterestOps = interestOps;
-					
-					channel.register(selector, operation | registeredInterestOps);
-				} catch (ClosedChannelException e) {
+				} catch (ClosedChannelException | CancelledKeyException e) {
 					System.err.println("Could not register operation with channel because the channel is closed.");
-					Dispatcher.this.handlersByChannelByOperation.get(operation).remove(channel);	
 					e.printStackTrace();
 				}
 			}
@@ -142,19 +274,67 @@ public class Dispatcher {
 			public void run() {
 				SelectionKey key = channel.keyFor(selector);
 				
-				if (key != null && key.isValid()) {
-					int ops = key.interestOps();
-
-					ops &= ~operation;
-					
-					key.interestOps(ops);
-				}
+				Dispatcher.this.updateInterestOps(key, operation, false);
 				
-				Dispatcher.this.handlersByChannelByOperation.get(operation).remove(channel);
+				if (key != null && key.attachment() != null) ((ChannelRegistration)key.attachment()).setHandlerDispatcher(operation, null);
 			}
 		});
 	}
 	
+	/**
+	 * The number of channels that currently have handlers registered with this dispatcher.
+	 * */
+	public int getChannelCount() {
+		return this.channelCount;
+	}
+	/**
+	 * The BufferPool used for the buffers of channels handled by this dispatcher.
+	 * */
+	public BufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+	/**
+	 * Sets the budget for a single readiness event of the ChannelReaders of this dispatcher's channels. A reader keeps reading until its socket is drained, 
+	 * or until either limit is reached, so that a single busy socket does not starve the other channels. 
+	 * Only applies to readers created afterwards, so it should be set before channels are registered.
+	 * 
+	 * @param maximumBytesPerRead The maximum number of bytes read per event. Defaults to ChannelReader.DEFAULT_MAXIMUM_BYTES_PER_READ.
+	 * @param maximumFramesPerRead The maximum number of frames handed out per event. Defaults to ChannelReader.DEFAULT_MAXIMUM_FRAMES_PER_READ.
+	 * */
+	public void setReadBudget(int maximumBytesPerRead, int maximumFramesPerRead) {
+		if (maximumBytesPerRead <= 0) throw new IllegalArgumentException("maximumBytesPerRead needs to be > 0");
+		if (maximumFramesPerRead <= 0) throw new IllegalArgumentException("maximumFramesPerRead needs to be > 0");
+		
+		this.maximumBytesPerRead = maximumBytesPerRead;
+		this.maximumFramesPerRead = maximumFramesPerRead;
+	}
+	public int getMaximumBytesPerRead() {
+		return this.maximumBytesPerRead;
+	}
+	public int getMaximumFramesPerRead() {
+		return this.maximumFramesPerRead;
+	}
+	/**
+	 * Sets the watermarks that determine the writability of the ChannelWriters of this dispatcher's channels. 
+	 * Only applies to writers created afterwards, so it should be set before channels are registered.
+	 * 
+	 * @param lowWatermark The number of queued bytes at which an unwritable writer becomes writable again. Defaults to ChannelWriter.DEFAULT_LOW_WATERMARK.
+	 * @param highWatermark The number of queued bytes above which a writer becomes unwritable. Defaults to ChannelWriter.DEFAULT_HIGH_WATERMARK.
+	 * */
+	public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0) throw new IllegalArgumentException("lowWatermark may not be negative");
+		if (highWatermark < lowWatermark) throw new IllegalArgumentException("highWatermark may not be smaller than lowWatermark");
+		
+		this.lowWriteWatermark = lowWatermark;
+		this.highWriteWatermark = highWatermark;
+	}
+	public int getLowWriteWatermark() {
+		return this.lowWriteWatermark;
+	}
+	public int getHighWriteWatermark() {
+		return this.highWriteWatermark;
+	}
+	
 	public void start() {
 		if (this.isCurrentlyRunning) {
 			System.err.println("Attempted to start a dispatcher that is already running.");
@@ -197,24 +377,114 @@ public class Dispatcher {
 			Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
 			
 			while(keyIterator.hasNext()) {
-				final SelectionKey key = keyIterator.next();
+				SelectionKey key = keyIterator.next();
+				keyIterator.remove();
 				
-				for (final int operation : ALL_OPERATIONS) {
-					if(key.isValid() && (key.readyOps() & operation) != 0) {
-						this.executor.execute(new Runnable() {
-							@Override
-							public void run() {
-								HandlerDispatcher<?> dispatcher = Dispatcher.this.handlersByChannelByOperation.get(operation).get(key.channel());
-								if (dispatcher != null) {
-									dispatcher.dispatch();
-								}
-							}
-						});
-					}
-					if (!this.isCurrentlyRunning) break;
+				if (!key.isValid()) continue;
+				
+				ChannelRegistration registration = (ChannelRegistration)key.attachment();
+				if (registration != null) registration.dispatch(key.readyOps());
+				
+				if (!this.isCurrentlyRunning) break;
+			}
+		}
+	}
+	
+	/**
+	 * A ChannelRegistration is attached to the SelectionKey of each registered channel. It stores the channel's handlers, and dispatches the channel's events.
+	 * 
+	 * Events of a channel are executed one at a time and in order, even if the Dispatcher's executor is multi-threaded, so that handlers of a channel never run 
+	 * concurrently. Events of different channels may run in parallel. Ready operations are collected in a bit mask until they are handled, so an operation that 
+	 * becomes ready again while its previous event is pending is handled only once. Dispatching an event does not allocate any objects.
+	 * */
+	private static class ChannelRegistration {
+		/** Set in the state while the drain runnable is submitted to the executor or running. Does not collide with the SelectionKey.OP_* bits. */
+		private final static int SCHEDULED = 1 << 30;
+		/** The maximum number of times pending operations are handled before the drain runnable yields the executor's thread. */
+		private final static int MAXIMUM_DRAIN_ITERATIONS = 16;
+		
+		private final Executor executor;
+		/** The pending operations and the SCHEDULED flag. */
+		private final AtomicInteger state;
+		private final Runnable drainRunnable;
+		
+		private volatile HandlerDispatcher<?> acceptDispatcher;
+		private volatile HandlerDispatcher<?> connectDispatcher;
+		private volatile HandlerDispatcher<?> readDispatcher;
+		private volatile HandlerDispatcher<?> writeDispatcher;
+		
+		public ChannelRegistration(Executor executor) {
+			this.executor = executor;
+			this.state = new AtomicInteger(0);
+			this.drainRunnable = new Runnable() {
+				@Override
+				public void run() {
+					ChannelRegistration.this.drain();
 				}
+			};
+		}
+		
+		public void setHandlerDispatcher(int operation, HandlerDispatcher<?> handlerDispatcher) {
+			switch (operation) {
+				case SelectionKey.OP_ACCEPT: this.acceptDispatcher = handlerDispatcher; break;
+				case SelectionKey.OP_CONNECT: this.connectDispatcher = handlerDispatcher; break;
+				case SelectionKey.OP_READ: this.readDispatcher = handlerDispatcher; break;
+				case SelectionKey.OP_WRITE: this.writeDispatcher = handlerDispatcher; break;
+				default: throw new IllegalArgumentException("Invalid operation: "+operation);
+			}
+		}
+		
+		public boolean hasHandlerDispatcher(int operation) {
+			switch (operation) {
+				case SelectionKey.OP_ACCEPT: return this.acceptDispatcher != null;
+				case SelectionKey.OP_CONNECT: return this.connectDispatcher != null;
+				case SelectionKey.OP_READ: return this.readDispatcher != null;
+				case SelectionKey.OP_WRITE: return this.writeDispatcher != null;
+				default: throw new IllegalArgumentException("Invalid operation: "+operation);
+			}
+		}
+		
+		/** Called with the operations that are ready, either from the dispatcher's thread or by signal. */
+		public void dispatch(int readyOperations) {
+			int previousState;
+			do {
+				previousState = this.state.get();
+			} while (!this.state.compareAndSet(previousState, previousState | readyOperations | SCHEDULED));
+			
+			if ((previousState & SCHEDULED) == 0) this.executor.execute(this.drainRunnable);
+		}
+		
+		private void drain() {
+			for (int i=0; i<MAXIMUM_DRAIN_ITERATIONS; i++) {
+				int operations = this.state.getAndSet(SCHEDULED) & ~SCHEDULED;
 				
-				keyIterator.remove();
+				if (operations == 0) {
+					if (this.state.compareAndSet(SCHEDULED, 0)) return;
+					continue;
+				}
+				
+				if ((operations & SelectionKey.OP_ACCEPT) != 0) dispatch(this.acceptDispatcher);
+				if ((operations & SelectionKey.OP_CONNECT) != 0) dispatch(this.connectDispatcher);
+				if ((operations & SelectionKey.OP_READ) != 0) dispatch(this.readDispatcher);
+				if ((operations & SelectionKey.OP_WRITE) != 0) dispatch(this.writeDispatcher);
+			}
+			
+			// Operations are still pending, but other channels should get a chance to run. SCHEDULED stays set, so the runnable is resubmitted.
+			this.executor.execute(this.drainRunnable);
+		}
+		
+		/** 
+		 * Calls a handler. Exceptions thrown by the handler are logged, since they would otherwise end the drain with SCHEDULED set, 
+		 * after which the channel's events would never be dispatched again.
+		 * */
+		private static void dispatch(HandlerDispatcher<?> handlerDispatcher) {
+			if (handlerDispatcher == null) return;
+			
+			try {
+				handlerDispatcher.dispatch();
+			} catch (RuntimeException e) {
+				System.err.println("A handler of a channel threw an exception.");
+				e.printStackTrace();
 			}
 		}
 	}
@@ -0,0 +1,102 @@
+package de.tum.in.www1.jReto.niotools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A DispatcherGroup runs several Dispatchers, each with its own selector thread, and assigns channels to them.
+ * 
+ * Every channel is handled by a single Dispatcher for its whole lifetime; use next() to obtain the Dispatcher a new channel should be registered with.
+ * Spreading channels over multiple selector loops allows peers with many connections (e.g. relay nodes that forward routed connections) to use more than one core for selecting.
+ * */
+public class DispatcherGroup {
+	/** Specifies how channels are assigned to the Dispatchers of a group. */
+	public static enum Assignment {
+		/** Channels are assigned to each Dispatcher in turn. */
+		ROUND_ROBIN,
+		/** Channels are assigned to the Dispatcher that currently has the fewest registered channels. */
+		LEAST_LOADED
+	}
+	
+	private final List<Dispatcher> dispatchers;
+	private final Assignment assignment;
+	private final AtomicInteger nextIndex;
+	
+	/**
+	 * Constructs a new DispatcherGroup.
+	 * 
+	 * @param executor The executor handlers are dispatched on. Shared by all Dispatchers in the group.
+	 * @param dispatcherCount The number of Dispatchers (i.e. selector threads) to use.
+	 * @param assignment The strategy used to assign channels to Dispatchers.
+	 * */
+	public DispatcherGroup(Executor executor, int dispatcherCount, Assignment assignment) throws IOException {
+		this(executor, dispatcherCount, assignment, SizeClassBufferPool.SHARED);
+	}
+	/**
+	 * Constructs a new DispatcherGroup whose Dispatchers use the given BufferPool.
+	 * 
+	 * @param executor The executor handlers are dispatched on. Shared by all Dispatchers in the group.
+	 * @param dispatcherCount The number of Dispatchers (i.e. selector threads) to use.
+	 * @param assignment The strategy used to assign channels to Dispatchers.
+	 * @param bufferPool The BufferPool shared by all Dispatchers in the group.
+	 * */
+	public DispatcherGroup(Executor executor, int dispatcherCount, Assignment assignment, BufferPool bufferPool) throws IOException {
+		if (dispatcherCount <= 0) throw new IllegalArgumentException("dispatcherCount needs to be > 0");
+		if (assignment == null) throw new IllegalArgumentException("assignment may not be null");
+		
+		List<Dispatcher> dispatchers = new ArrayList<Dispatcher>(dispatcherCount);
+		for (int i=0; i<dispatcherCount; i++) dispatchers.add(new Dispatcher(executor, bufferPool));
+		
+		this.dispatchers = Collections.unmodifiableList(dispatchers);
+		this.assignment = assignment;
+		this.nextIndex = new AtomicInteger(0);
+	}
+	
+	/**
+	 * Returns the Dispatcher that the next channel should be registered with.
+	 * */
+	public Dispatcher next() {
+		if (this.dispatchers.size() == 1) return this.dispatchers.get(0);
+		
+		switch (this.assignment) {
+			case LEAST_LOADED:
+				Dispatcher leastLoadedDispatcher = null;
+				for (Dispatcher dispatcher : this.dispatchers) {
+					if (leastLoadedDispatcher == null || dispatcher.getChannelCount() < leastLoadedDispatcher.getChannelCount()) leastLoadedDispatcher = dispatcher;
+				}
+				return leastLoadedDispatcher;
+			case ROUND_ROBIN:
+			default:
+				return this.dispatchers.get(Math.floorMod(this.nextIndex.getAndIncrement(), this.dispatchers.size()));
+		}
+	}
+	
+	/**
+	 * Sets the read budget of all Dispatchers in the group. See Dispatcher.setReadBudget.
+	 * */
+	public void setReadBudget(int maximumBytesPerRead, int maximumFramesPerRead) {
+		for (Dispatcher dispatcher : this.dispatchers) dispatcher.setReadBudget(maximumBytesPerRead, maximumFramesPerRead);
+	}
+	
+	/**
+	 * Sets the write watermarks of all Dispatchers in the group. See Dispatcher.setWriteWatermarks.
+	 * */
+	public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+		for (Dispatcher dispatcher : this.dispatchers) dispatcher.setWriteWatermarks(lowWatermark, highWatermark);
+	}
+	
+	public List<Dispatcher> getDispatchers() {
+		return this.dispatchers;
+	}
+	
+	public void start() {
+		for (Dispatcher dispatcher : this.dispatchers) dispatcher.start();
+	}
+	public void stop() {
+		for (Dispatcher dispatcher : this.dispatchers) dispatcher.stop();
+	}
+}
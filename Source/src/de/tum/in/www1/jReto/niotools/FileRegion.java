@@ -0,0 +1,70 @@
+package de.tum.in.www1.jReto.niotools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of bytes in a file. FileRegions allow sending file data to a channel using FileChannel.transferTo, which lets the operating system
+ * copy the data without reading it into memory first. The file may not be truncated while a region of it is in use.
+ *
+ * Whoever sends a FileRegion releases it once its data is no longer needed, so that the owner of the file knows when it can be closed.
+ * */
+public class FileRegion {
+	public final FileChannel fileChannel;
+	/** The offset of the region's first byte in the file. */
+	public final long position;
+	/** The length of the region in bytes. */
+	public final int length;
+	/** Called when the region is released, or null. */
+	private final Runnable releaseHandler;
+	private boolean isReleased;
+
+	public FileRegion(FileChannel fileChannel, long position, int length) {
+		this(fileChannel, position, length, null);
+	}
+	public FileRegion(FileChannel fileChannel, long position, int length, Runnable releaseHandler) {
+		if (fileChannel == null) throw new IllegalArgumentException("fileChannel may not be null");
+		if (position < 0) throw new IllegalArgumentException("position may not be negative");
+		if (length < 0) throw new IllegalArgumentException("length may not be negative");
+
+		this.fileChannel = fileChannel;
+		this.position = position;
+		this.length = length;
+		this.releaseHandler = releaseHandler;
+	}
+
+	/**
+	 * Transfers part of the region to a channel. Returns the number of bytes transferred, which may be less than requested if the channel is non-blocking.
+	 * 
+	 * @param offset The offset within the region at which to start.
+	 * @param target The channel to write to.
+	 * */
+	public long transferTo(long offset, WritableByteChannel target) throws IOException {
+		return this.fileChannel.transferTo(this.position + offset, this.length - offset, target);
+	}
+	/**
+	 * Reads the whole region into a buffer, starting at the buffer's position. The buffer needs to have at least length bytes remaining.
+	 * */
+	public void readInto(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < this.length) throw new IllegalArgumentException("buffer needs to have at least "+this.length+" bytes remaining");
+
+		ByteBuffer target = buffer.duplicate();
+		target.limit(target.position() + this.length);
+		while (target.hasRemaining()) {
+			int bytesRead = this.fileChannel.read(target, this.position + this.length - target.remaining());
+			if (bytesRead == -1) throw new IOException("The file ended before the end of the region.");
+		}
+		buffer.position(target.position());
+	}
+	/**
+	 * Releases the region. Its data may not be accessed afterwards.
+	 * */
+	public void release() {
+		if (this.isReleased) throw new IllegalStateException("Attempted to release a FileRegion that was already released.");
+
+		this.isReleased = true;
+		if (this.releaseHandler != null) this.releaseHandler.run();
+	}
+}
@@ -0,0 +1,68 @@
+package de.tum.in.www1.jReto.niotools;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted ByteBuffer that belongs to a BufferPool.
+ *
+ * A PooledBuffer starts out with a single reference. Anyone who keeps the buffer beyond the owner's use should call retain(), and every reference
+ * needs to be released exactly once; the buffer is returned to its pool when the last reference is released, after which it may not be used anymore.
+ * */
+public final class PooledBuffer {
+	private final BufferPool pool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger referenceCount;
+
+	/**
+	 * Constructs a new PooledBuffer.
+	 *
+	 * @param pool The pool the buffer is returned to once it was released. May be null, in which case the buffer is simply left to the garbage collector.
+	 * @param buffer The buffer.
+	 * */
+	public PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+		if (buffer == null) throw new IllegalArgumentException("buffer may not be null");
+
+		this.pool = pool;
+		this.buffer = buffer;
+		this.referenceCount = new AtomicInteger(1);
+	}
+
+	/**
+	 * Wraps a buffer that does not belong to a pool. Releasing it has no effect besides updating the reference count.
+	 * */
+	public static PooledBuffer wrap(ByteBuffer buffer) {
+		return new PooledBuffer(null, buffer);
+	}
+
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+	public BufferPool getPool() {
+		return this.pool;
+	}
+	public int getReferenceCount() {
+		return this.referenceCount.get();
+	}
+
+	/** Adds a reference. */
+	public PooledBuffer retain() {
+		if (this.referenceCount.getAndIncrement() <= 0) throw new IllegalStateException("Attempted to retain a buffer that was already released.");
+
+		return this;
+	}
+	/** Removes a reference, and returns the buffer to its pool if it was the last one. */
+	public void release() {
+		int referenceCount = this.referenceCount.decrementAndGet();
+
+		if (referenceCount < 0) throw new IllegalStateException("Attempted to release a buffer that was already released.");
+		if (referenceCount == 0 && this.pool != null) this.pool.recycle(this);
+	}
+
+	/** Prepares a recycled buffer to be handed out again. */
+	void reset(int length) {
+		this.referenceCount.set(1);
+		this.buffer.clear();
+		this.buffer.limit(length);
+	}
+}
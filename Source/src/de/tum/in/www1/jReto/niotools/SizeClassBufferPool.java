@@ -0,0 +1,121 @@
+package de.tum.in.www1.jReto.niotools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A BufferPool that keeps released buffers in size classes. The size classes are powers of two between a minimum and a maximum size;
+ * a request is served from the smallest class that fits it. Requests larger than the maximum size are allocated on demand and not pooled.
+ *
+ * Each size class retains a limited number of released buffers; buffers released while the class is full are left to the garbage collector.
+ * Buffers may optionally be allocated as direct buffers, which saves a copy when they are written to or read from a channel.
+ * */
+public class SizeClassBufferPool implements BufferPool {
+	/** The default minimum size class. */
+	public static final int DEFAULT_MINIMUM_SIZE = 64;
+	/** The default maximum size class. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 256*1024;
+	/** The default number of buffers retained per size class. */
+	public static final int DEFAULT_MAXIMUM_BUFFERS_PER_CLASS = 32;
+
+	/** A pool of heap buffers with the default configuration that is shared by all components that are not given a pool explicitly. */
+	public static final SizeClassBufferPool SHARED = new SizeClassBufferPool(DEFAULT_MINIMUM_SIZE, DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_BUFFERS_PER_CLASS, false);
+
+	/** The released buffers of one size class. */
+	private static class SizeClass {
+		final int size;
+		final PooledBuffer[] buffers;
+		int count;
+
+		SizeClass(int size, int maximumBufferCount) {
+			this.size = size;
+			this.buffers = new PooledBuffer[maximumBufferCount];
+		}
+
+		synchronized PooledBuffer poll() {
+			if (this.count == 0) return null;
+
+			PooledBuffer buffer = this.buffers[--this.count];
+			this.buffers[this.count] = null;
+			return buffer;
+		}
+		synchronized void offer(PooledBuffer buffer) {
+			if (this.count == this.buffers.length) return;
+
+			this.buffers[this.count++] = buffer;
+		}
+	}
+
+	private final int minimumSize;
+	private final int maximumSize;
+	private final boolean isDirect;
+	private final SizeClass[] sizeClasses;
+
+	/**
+	 * Constructs a new SizeClassBufferPool.
+	 *
+	 * @param minimumSize The size of the smallest size class. Needs to be a power of two.
+	 * @param maximumSize The size of the largest size class. Needs to be a power of two, and at least minimumSize.
+	 * @param maximumBuffersPerClass The maximum number of released buffers retained per size class.
+	 * @param isDirect Whether direct buffers should be allocated.
+	 * */
+	public SizeClassBufferPool(int minimumSize, int maximumSize, int maximumBuffersPerClass, boolean isDirect) {
+		if (minimumSize <= 0 || Integer.bitCount(minimumSize) != 1) throw new IllegalArgumentException("minimumSize needs to be a power of two");
+		if (maximumSize < minimumSize || Integer.bitCount(maximumSize) != 1) throw new IllegalArgumentException("maximumSize needs to be a power of two that is at least minimumSize");
+		if (maximumBuffersPerClass < 0) throw new IllegalArgumentException("maximumBuffersPerClass may not be negative");
+
+		this.minimumSize = minimumSize;
+		this.maximumSize = maximumSize;
+		this.isDirect = isDirect;
+		this.sizeClasses = new SizeClass[Integer.numberOfTrailingZeros(maximumSize) - Integer.numberOfTrailingZeros(minimumSize) + 1];
+
+		for (int i=0; i<this.sizeClasses.length; i++) this.sizeClasses[i] = new SizeClass(minimumSize << i, maximumBuffersPerClass);
+	}
+
+	public boolean isDirect() {
+		return this.isDirect;
+	}
+
+	@Override
+	public PooledBuffer acquire(int length) {
+		if (length < 0) throw new IllegalArgumentException("length may not be negative");
+
+		SizeClass sizeClass = this.sizeClassFor(length);
+		if (sizeClass == null) {
+			PooledBuffer buffer = new PooledBuffer(this, this.allocate(length));
+			buffer.reset(length);
+			return buffer;
+		}
+
+		PooledBuffer buffer = sizeClass.poll();
+		if (buffer == null) buffer = new PooledBuffer(this, this.allocate(sizeClass.size));
+
+		buffer.reset(length);
+		return buffer;
+	}
+
+	@Override
+	public void recycle(PooledBuffer buffer) {
+		if (buffer.getPool() != this) throw new IllegalArgumentException("Attempted to recycle a buffer that belongs to a different pool.");
+
+		int capacity = buffer.getBuffer().capacity();
+		SizeClass sizeClass = this.sizeClassFor(capacity);
+
+		if (sizeClass != null && sizeClass.size == capacity) sizeClass.offer(buffer);
+	}
+
+	/** Returns the smallest size class that can hold the given number of bytes, or null if it exceeds the maximum size. */
+	private SizeClass sizeClassFor(int length) {
+		if (length > this.maximumSize) return null;
+		if (length <= this.minimumSize) return this.sizeClasses[0];
+
+		int size = Integer.highestOneBit(length - 1) << 1;
+		return this.sizeClasses[Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(this.minimumSize)];
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		ByteBuffer buffer = this.isDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+}
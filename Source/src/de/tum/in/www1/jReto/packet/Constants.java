@@ -4,4 +4,5 @@ public class Constants {
 	public static final int PACKET_TYPE_SIZE = 4;
 	public static final int INT_SIZE = 4;
 	public static final int UUID_SIZE = 16;
+	public static final int TRANSFER_IDENTIFIER_SIZE = 4;
 }
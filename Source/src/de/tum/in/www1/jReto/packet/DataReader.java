@@ -54,6 +54,16 @@ public class DataReader {
 		return new UUID(this.data.getLong(), this.data.getLong());
 	}
     /**
+    * Returns the next length bytes, without copying them.
+    */
+	public ByteBuffer getData(int length) {
+		ByteBuffer data = this.data.slice();
+		data.limit(length);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		this.data.position(this.data.position() + length);
+		return data;
+	}
+    /**
     * Returns all remaining data.
     */
 	public ByteBuffer getRemainingData() {
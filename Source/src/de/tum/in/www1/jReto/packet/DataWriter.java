@@ -13,6 +13,11 @@ public class DataWriter {
 		this.data = ByteBuffer.allocate(length);
 		this.data.order(ByteOrder.LITTLE_ENDIAN);
 	}
+    /** Constructs a data writer that appends to an existing buffer, starting at its position. */
+	public DataWriter(ByteBuffer data) {
+		this.data = data;
+		this.data.order(ByteOrder.LITTLE_ENDIAN);
+	}
 	/** Appends a PacketType */
 	public void add(PacketType type) {
 		this.add(type.toRaw());
@@ -1,7 +1,48 @@
 package de.tum.in.www1.jReto.packet;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
+import de.tum.in.www1.jReto.niotools.FileRegion;
+
+/**
+* A Packet can be serialized to be sent over a connection. The first four bytes of a serialized packet always contain its type.
+*
+* A serialized packet consists of a header, optionally followed by a payload. Packets that carry large amounts of data (e.g. the data of a transfer) 
+* may return it as a separate payload buffer, which allows sending it using a gathering write instead of copying it behind the header.
+* Packets whose data is stored in a file may instead return a FileRegion that follows the header.
+*/
 public interface Packet {
-	public ByteBuffer serialize();
+	/** The packet's type, i.e. the value stored in the first four bytes of the serialized packet. */
+	PacketType getType();
+	/** The length of the serialized packet in bytes, including the payload. */
+	int serializedSize();
+	/** Writes the full serialized packet, including the payload, into the buffer, starting at its position. The buffer needs to have serializedSize() bytes remaining. */
+	void serializeInto(ByteBuffer buffer);
+	
+	/** The length of the header in bytes. For packets without a separate payload, this is the packet's full length. */
+	default int headerSize() {
+		return this.serializedSize();
+	}
+	/** Writes the header into the buffer, starting at its position. The buffer needs to have headerSize() bytes remaining. */
+	default void serializeHeaderInto(ByteBuffer buffer) {
+		this.serializeInto(buffer);
+	}
+	/** The payload that follows the header, or null if the packet has no separate payload. */
+	default ByteBuffer getPayload() {
+		return null;
+	}
+	/** The region of a file whose data follows the header, or null if the packet's data is not read from a file. Packets may not have both a payload and a file region. */
+	default FileRegion getFileRegion() {
+		return null;
+	}
+	
+	/** Serializes the packet into a new buffer. */
+	default ByteBuffer serialize() {
+		ByteBuffer buffer = ByteBuffer.allocate(this.serializedSize());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.serializeInto(buffer);
+		buffer.rewind();
+		return buffer;
+	}
 }
@@ -19,12 +19,19 @@ public enum PacketType {
 	CLOSE_REQUEST(11),
 	CLOSE_ANNOUNCE(12),
 	CLOSE_ACKNOWLEDGE(13),
+	PACKET_BATCH(14),
+	SEQUENCED_PACKET(15),
+	ACKNOWLEDGEMENT(16),
 	
 	// Data transmission
 	TRANSFER_STARTED(20),
 	DATA_PACKET(21),
 	CANCELLED_TRANSFER(22),
-	PROGRESS_INFORMATION(23);
+	PROGRESS_INFORMATION(23),
+	INLINE_MESSAGE(24),
+	TRANSFER_ENDED(25),
+	TRANSFER_CREDIT(26),
+	WINDOW_UPDATE(27);
 	
 	private static final Map<Integer, PacketType> intToTypeMap = new HashMap<Integer, PacketType>();
 	static {
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import de.tum.in.www1.jReto.module.api.Connection;
+import de.tum.in.www1.jReto.niotools.FileRegion;
 
 //TODO: ignores didSendData - is this ok?
 //TODO: might buffer lots of data if incoming connection is fast and outgoing connection is slow.
@@ -67,6 +68,11 @@ public class ForkingConnection implements Connection, Connection.Handler {
 		}
 	}
 
+	@Override
+	public void onWritabilityChanged(Connection connection) {
+		if (connection == this.incomingConnection && this.handler != null) this.handler.onWritabilityChanged(this);
+	}
+
 	@Override
 	public void setHandler(Handler handler) {
 		this.handler = handler;
@@ -84,6 +90,14 @@ public class ForkingConnection implements Connection, Connection.Handler {
 		return this.incomingConnection.getRecommendedPacketSize();
 	}
 	@Override
+	public int getMinimumPacketSize() {
+		return this.incomingConnection.getMinimumPacketSize();
+	}
+	@Override
+	public int getMaximumPacketSize() {
+		return this.incomingConnection.getMaximumPacketSize();
+	}
+	@Override
 	public void connect() {
 		System.err.println("Called connect on ForkingConnection. It should already be connected.");
 	}
@@ -96,4 +110,20 @@ public class ForkingConnection implements Connection, Connection.Handler {
 	public void writeData(ByteBuffer data) {
 		this.incomingConnection.writeData(data);
 	}
+	@Override
+	public void writeData(ByteBuffer[] data) {
+		this.incomingConnection.writeData(data);
+	}
+	@Override
+	public boolean isFileRegionSupported() {
+		return this.incomingConnection.isFileRegionSupported();
+	}
+	@Override
+	public void writeData(ByteBuffer[] data, FileRegion fileRegion) {
+		this.incomingConnection.writeData(data, fileRegion);
+	}
+	@Override
+	public boolean isWritable() {
+		return this.incomingConnection.isWritable();
+	}
 }
@@ -2,7 +2,9 @@ package de.tum.in.www1.jReto.routing;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import de.tum.in.www1.jReto.module.api.Connection;
@@ -15,14 +17,18 @@ public class MulticastConnection implements Connection, Connection.Handler {
 	private Connection.Handler handler;
     /** The subconnections used with this connection */
 	private final Set<Connection> subconnections = new HashSet<Connection>();
-    /** Stores the number of dataSent calls yet to be received. Once all are received, the delegate's didSendData can be called. */
-	private int dataSentCallbacksToBeReceived = 0;
-    /** The number of data packets that have been sent in total. */
-	private int dataPacketsSent = 0;
+    /** 
+    * Stores the number of writes each subconnection completed that were not yet reported to the delegate. A write is reported once every subconnection completed it,
+    * since the written data may not be reused before that.
+    */
+	private final Map<Connection, Integer> unreportedCompletedWrites = new HashMap<>();
+    /** Whether all subconnections were writable when writability was last reported to the delegate. */
+	private boolean isWritable = true;
 
     /** Adds a subconnection. */
 	public void addSubconnection(Connection connection) {
 		this.subconnections.add(connection);
+		this.unreportedCompletedWrites.put(connection, 0);
 		connection.setHandler(this);
 	}
 	
@@ -54,6 +60,22 @@ public class MulticastConnection implements Connection, Connection.Handler {
 		
 		return recommendedPacketSize;
 	}
+	@Override
+	public int getMinimumPacketSize() {
+		int minimumPacketSize = 1;
+		
+		for (Connection subconnection : this.subconnections) minimumPacketSize = Math.max(minimumPacketSize, subconnection.getMinimumPacketSize());
+		
+		return Math.min(minimumPacketSize, this.getRecommendedPacketSize());
+	}
+	@Override
+	public int getMaximumPacketSize() {
+		int maximumPacketSize = Integer.MAX_VALUE;
+		
+		for (Connection subconnection : this.subconnections) maximumPacketSize = Math.min(maximumPacketSize, subconnection.getMaximumPacketSize());
+		
+		return Math.max(maximumPacketSize, this.getRecommendedPacketSize());
+	}
 
 	@Override
 	public void connect() {
@@ -66,16 +88,28 @@ public class MulticastConnection implements Connection, Connection.Handler {
 
 	@Override
 	public void writeData(ByteBuffer data) {
-		if (dataSentCallbacksToBeReceived != 0) {
-			this.dataPacketsSent++;
-		} else {
-			this.dataSentCallbacksToBeReceived = this.subconnections.size();
-		}
-		
 		for (Connection subconnection : this.subconnections) {
 			subconnection.writeData(data.slice().order(ByteOrder.LITTLE_ENDIAN));
 		}
 	}
+	@Override
+	public void writeData(ByteBuffer[] data) {
+		for (Connection subconnection : this.subconnections) {
+			ByteBuffer[] slices = new ByteBuffer[data.length];
+			for (int i=0; i<data.length; i++) slices[i] = data[i].slice().order(ByteOrder.LITTLE_ENDIAN);
+			
+			subconnection.writeData(slices);
+		}
+	}
+
+	@Override
+	public boolean isWritable() {
+		for (Connection subconnection : this.subconnections) {
+			if (!subconnection.isWritable()) return false;
+		}
+		
+		return true;
+	}
 
 	@Override
 	public void onConnect(Connection connection) {
@@ -99,20 +133,26 @@ public class MulticastConnection implements Connection, Connection.Handler {
 
 	@Override
 	public void onDataSent(Connection connection) {
-		if (this.dataSentCallbacksToBeReceived == 0) {
+		if (!this.unreportedCompletedWrites.containsKey(connection)) {
 			System.err.println("Received unexpected onDataSent call!");
 			return;
 		}
 		
-		this.dataSentCallbacksToBeReceived--;
+		this.unreportedCompletedWrites.merge(connection, 1, Integer::sum);
 		
-		if (this.dataSentCallbacksToBeReceived == 0) {
-			if (this.dataPacketsSent != 0) {
-				this.dataPacketsSent--;
-				this.dataSentCallbacksToBeReceived = this.subconnections.size();
-			}
-			
-			this.handler.onDataSent(this);
-		}
+		final int completedWrites = this.unreportedCompletedWrites.values().stream().mapToInt(count -> count).min().getAsInt();
+		if (completedWrites == 0) return;
+		
+		this.unreportedCompletedWrites.replaceAll((subconnection, count) -> count - completedWrites);
+		for (int i=0; i<completedWrites; i++) this.handler.onDataSent(this);
+	}
+
+	@Override
+	public void onWritabilityChanged(Connection connection) {
+		boolean isWritable = this.isWritable();
+		if (isWritable == this.isWritable) return;
+		
+		this.isWritable = isWritable;
+		if (this.handler != null) this.handler.onWritabilityChanged(this);
 	}
 }
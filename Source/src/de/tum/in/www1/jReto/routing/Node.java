@@ -173,6 +173,8 @@ public class Node implements PacketConnection.Handler {
 	public void onUnderlyingConnectionConnected(PacketConnection connection) {}
 	@Override
 	public void onNoPacketsLeft(PacketConnection connection) {}
+	@Override
+	public void onUnderlyingConnectionWritabilityChanged(PacketConnection connection) {}
 
 	@Override
 	public Set<PacketType> getHandledPacketTypes() {
@@ -38,14 +38,19 @@ public class FloodingPacket implements Packet {
 		
 		return new FloodingPacket(reader.getUUID(), reader.getInt(),  reader.getRemainingData());
 	}
-	public ByteBuffer serialize() {
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + this.payload.limit();
+	}
+	public void serializeInto(ByteBuffer buffer) {
 		this.payload.rewind(); // Maybe someone from outside accessed the buffer and didn't rewind it
-		DataWriter data = new DataWriter(MINIMUM_LENGTH + this.payload.remaining());
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.originIdentifier);
 		data.add(this.sequenceNumber);
 		data.add(this.payload);
 		this.payload.rewind(); // Make sure someone from outside can use the buffer without rewinding first
-		return data.getData();
 	}
 }
@@ -38,11 +38,16 @@ public class LinkHandshake implements Packet {
 		return new LinkHandshake(identifier, purpose);
 	}
 	
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(LENGTH);
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.peerIdentifier);
 		data.add(this.connectionPurpose.toRaw());
-		return data.getData();
 	}
 }
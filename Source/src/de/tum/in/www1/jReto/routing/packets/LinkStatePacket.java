@@ -47,8 +47,14 @@ public class LinkStatePacket implements Packet {
 		
 		return new LinkStatePacket(identifier, neighbors);
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(MINIMUM_LENGTH + this.neighbors.size() * (Constants.UUID_SIZE + Constants.INT_SIZE));
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + this.neighbors.size() * (Constants.UUID_SIZE + Constants.INT_SIZE);
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.peerIdentifier);
 		data.add(this.neighbors.size());
@@ -57,7 +63,5 @@ public class LinkStatePacket implements Packet {
 			data.add(neighbor.node);
 			data.add((int)neighbor.cost);
 		}
-		
-		return data.getData();
 	}
 }
@@ -61,16 +61,20 @@ public class MulticastHandshake implements Packet {
 		
 		return new MulticastHandshake(sourcePeerIdentifier, destinations, nextHopsTree);
 	}
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(MINIMUM_LENGTH + Constants.INT_SIZE + destinationIdentifiers.size() * Constants.UUID_SIZE + nextHopsTree.size() * (Constants.INT_SIZE + Constants.UUID_SIZE));
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return MINIMUM_LENGTH + Constants.INT_SIZE + destinationIdentifiers.size() * Constants.UUID_SIZE + nextHopsTree.size() * (Constants.INT_SIZE + Constants.UUID_SIZE);
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.sourcePeerIdentifier);
 		data.add(destinationIdentifiers.size());
 		for (UUID destinationIdentifier : destinationIdentifiers) data.add(destinationIdentifier);
 		
 		serializeNextHopTree(data, nextHopsTree);
-		
-		return data.getData();
 	}
 	
 	private static Tree<UUID> deserializeNextHopTree(DataReader reader) {
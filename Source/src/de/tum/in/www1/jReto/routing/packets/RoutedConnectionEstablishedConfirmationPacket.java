@@ -30,10 +30,15 @@ public class RoutedConnectionEstablishedConfirmationPacket implements Packet {
 		
 		return new RoutedConnectionEstablishedConfirmationPacket(reader.getUUID());
 	}	
-	public ByteBuffer serialize() {
-		DataWriter data = new DataWriter(LENGTH);
+	public PacketType getType() {
+		return TYPE;
+	}
+	public int serializedSize() {
+		return LENGTH;
+	}
+	public void serializeInto(ByteBuffer buffer) {
+		DataWriter data = new DataWriter(buffer);
 		data.add(TYPE);
 		data.add(this.source);
-		return data.getData();
 	}
 }
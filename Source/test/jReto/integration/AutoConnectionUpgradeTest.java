@@ -1,5 +1,7 @@
 package jReto.integration;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.Arrays;
 
 import jReto.module.dummy.DummyAddress;
@@ -31,6 +33,14 @@ public class AutoConnectionUpgradeTest {
 	
 	@Test(timeout=1000000)
 	public void testAutoConnectionUpgrade() {
+		this.testAutoConnectionUpgrade(false);
+	}
+	@Test(timeout=1000000)
+	public void testAutoConnectionUpgradeWithAcknowledgements() {
+		this.testAutoConnectionUpgrade(true);
+	}
+	
+	public void testAutoConnectionUpgrade(final boolean isAcknowledgementEnabled) {
 		fastInterface.connectionCreatedHook = new DummyNetworkInterface.DummyConnectionCreatedHook() {
 			@Override
 			public void createdConnection(DummyAddress address, DummyConnection connection) {
@@ -50,10 +60,14 @@ public class AutoConnectionUpgradeTest {
 		
 		localPeer1.start(discoveredPeer -> {
 			Connection connection = discoveredPeer.connect();
+			connection.setAcknowledgementsEnabled(isAcknowledgementEnabled);
 			connection.send(TestData.generate(dataLength));
 		}, p -> {});
 		localPeer2.start(p -> {}, p -> {}, (p, connection) -> {
 			connection.setOnTransfer((c, transfer) -> {
+				// The receiving peer enables acknowledgements if the establishing peer announced them.
+				assertEquals(isAcknowledgementEnabled, c.isAcknowledgementsEnabled());
+				
 				transfer.setOnCompleteData((t, d) -> {
 					TestData.verify(d, dataLength);
 					
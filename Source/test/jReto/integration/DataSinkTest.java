@@ -0,0 +1,112 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.connectivity.FileDataSink;
+import de.tum.in.www1.jReto.connectivity.InTransfer;
+import de.tum.in.www1.jReto.connectivity.MappedFileDataSink;
+
+/**
+ * Tests that incoming transfers can be written to files using data sinks, and that a transfer is cancelled if its data sink fails.
+ * */
+public class DataSinkTest {
+	@Test(timeout=10000)
+	public void testFileDataSink() throws IOException {
+		new DataSinkTest().testDataSink(PeerConfiguration.directNeighborConfiguration(), false, false);
+	}
+	@Test(timeout=10000)
+	public void testMappedFileDataSink2Hop() throws IOException {
+		new DataSinkTest().testDataSink(PeerConfiguration.twoHopRoutedConfiguration(), true, false);
+	}
+	@Test(timeout=10000)
+	public void testDataSinkIgnoresCompleteDataHandler() throws IOException {
+		new DataSinkTest().testDataSink(PeerConfiguration.directNeighborConfiguration(), false, true);
+	}
+	@Test(timeout=10000)
+	public void testFailingDataSink() {
+		new DataSinkTest().testFailingDataSink(PeerConfiguration.directNeighborConfiguration());
+	}
+
+	static final int TRANSFER_LENGTH = 3*1024*1024;
+
+	boolean isCompleted = false;
+	boolean isCancelled = false;
+	boolean isCompleteDataHandlerCalled = false;
+	IOException sinkException;
+
+	public void testDataSink(final PeerConfiguration configuration, final boolean isMapped, final boolean setsCompleteDataHandler) throws IOException {
+		final Path path = Files.createTempFile("jReto", null);
+		
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnTransfer((c, transfer) -> {
+					try {
+						transfer.setDataSink(isMapped ? new MappedFileDataSink(path, transfer.getLength()) : new FileDataSink(path));
+					} catch (IOException e) {
+						sinkException = e;
+					}
+					// The data is written to the sink only, so the handler must not be called.
+					if (setsCompleteDataHandler) transfer.setOnCompleteData((t, data) -> isCompleteDataHandlerCalled = true);
+					transfer.setOnComplete(t -> {
+						isCompleted = true;
+						configuration.runloop.stop();
+					});
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			connection.send(TestData.generate(TRANSFER_LENGTH));
+		});
+		
+		byte[] data = Files.readAllBytes(path);
+		Files.delete(path);
+
+		assertNull(sinkException);
+		assertTrue(isCompleted);
+		assertFalse(isCompleteDataHandlerCalled);
+		TestData.verify(ByteBuffer.wrap(data), TRANSFER_LENGTH);
+	}
+	public void testFailingDataSink(final PeerConfiguration configuration) {
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnTransfer((c, transfer) -> {
+					transfer.setDataSink(new InTransfer.DataSink() {
+						@Override
+						public void write(ByteBuffer data, long offset) throws IOException {
+							throw new IOException("Disk full");
+						}
+						@Override
+						public void end(boolean isCompleted) {}
+					});
+					transfer.setOnComplete(t -> isCompleted = true);
+					transfer.setOnCancel(t -> {
+						isCancelled = true;
+						configuration.runloop.stop();
+					});
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			connection.send(TestData.generate(TRANSFER_LENGTH));
+		});
+
+		assertTrue(isCancelled);
+		assertFalse(isCompleted);
+	}
+}
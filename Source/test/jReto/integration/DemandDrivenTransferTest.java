@@ -0,0 +1,94 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.connectivity.InTransfer;
+import de.tum.in.www1.jReto.connectivity.OutTransfer;
+
+/**
+ * Tests that a transfer consumed on demand only delivers requested data, and that the sender stops sending when no more data is requested.
+ * */
+public class DemandDrivenTransferTest {
+	@Test(timeout=10000)
+	public void testDemandDrivenTransfer() {
+		new DemandDrivenTransferTest().testTransfer(PeerConfiguration.directNeighborConfiguration(), true);
+	}
+	@Test(timeout=10000)
+	public void testDemandDrivenTransfer2Hop() {
+		new DemandDrivenTransferTest().testTransfer(PeerConfiguration.twoHopRoutedConfiguration(), true);
+	}
+	@Test(timeout=10000)
+	public void testSenderStopsWithoutDemand() {
+		new DemandDrivenTransferTest().testTransfer(PeerConfiguration.directNeighborConfiguration(), false);
+	}
+
+	static final int TRANSFER_LENGTH = 4*1024*1024;
+	static final int REQUEST_LENGTH = 64*1024;
+
+	int requestedLength = 0;
+	int deliveredLength = 0;
+	boolean isCompleted = false;
+	OutTransfer outTransfer;
+
+	public void testTransfer(final PeerConfiguration configuration, final boolean keepRequesting) {
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnTransfer((c, transfer) -> {
+					transfer.setOnPartialData((t, data) -> this.onData(configuration, t, data, keepRequesting));
+					transfer.setOnComplete(t -> {
+						isCompleted = true;
+						configuration.runloop.stop();
+					});
+					this.request(transfer);
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			outTransfer = connection.send(TestData.generate(TRANSFER_LENGTH));
+			
+			if (!keepRequesting) {
+				// Give the sender time to send everything it is allowed to, then check that it stopped.
+				new Thread(() -> {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {}
+					configuration.runloop.execute(() -> configuration.runloop.stop());
+				}).start();
+			}
+		});
+
+		if (keepRequesting) {
+			assertTrue(isCompleted);
+			assertEquals(TRANSFER_LENGTH, deliveredLength);
+		} else {
+			assertEquals(REQUEST_LENGTH, deliveredLength);
+			assertTrue(outTransfer.getProgress() < TRANSFER_LENGTH);
+		}
+	}
+	
+	void request(InTransfer transfer) {
+		requestedLength += REQUEST_LENGTH;
+		transfer.requestData(REQUEST_LENGTH);
+	}
+	void onData(PeerConfiguration configuration, InTransfer transfer, ByteBuffer data, boolean keepRequesting) {
+		while (data.hasRemaining()) {
+			assertEquals(deliveredLength % 127, data.get());
+			deliveredLength++;
+		}
+		assertTrue(deliveredLength <= requestedLength);
+		
+		// Requests are issued asynchronously, like a consumer that processes data on another thread would.
+		if (keepRequesting && deliveredLength == requestedLength) configuration.runloop.execute(() -> this.request(transfer));
+	}
+}
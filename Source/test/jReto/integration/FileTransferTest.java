@@ -0,0 +1,65 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+
+/**
+ * Tests that a file sent with sendFile is received as a single transfer.
+ * */
+public class FileTransferTest {
+	@Test(timeout=10000)
+	public void testFileTransferDirect() throws IOException {
+		new FileTransferTest().testFileTransfer(PeerConfiguration.directNeighborConfiguration(), 3*1024*1024);
+	}
+	@Test(timeout=10000)
+	public void testFileTransfer2Hop() throws IOException {
+		new FileTransferTest().testFileTransfer(PeerConfiguration.twoHopRoutedConfiguration(), 3*1024*1024);
+	}
+	@Test(timeout=5000)
+	public void testEmptyFile() throws IOException {
+		new FileTransferTest().testFileTransfer(PeerConfiguration.directNeighborConfiguration(), 0);
+	}
+
+	int receivedLength = -1;
+	IOException sendException;
+
+	public void testFileTransfer(final PeerConfiguration configuration, final int fileLength) throws IOException {
+		final Path path = Files.createTempFile("jReto", null);
+		Files.write(path, TestData.generate(fileLength).array());
+		
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnData((c, data) -> {
+					receivedLength = data.remaining();
+					TestData.verify(data, receivedLength);
+					configuration.runloop.stop();
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			try {
+				connection.sendFile(path);
+			} catch (IOException e) {
+				sendException = e;
+				configuration.runloop.stop();
+			}
+		});
+		Files.delete(path);
+
+		assertNull(sendException);
+		assertEquals(fileLength, receivedLength);
+	}
+}
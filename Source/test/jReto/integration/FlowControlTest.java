@@ -0,0 +1,118 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.connectivity.AdaptivePacketSizer;
+import de.tum.in.www1.jReto.connectivity.InTransfer;
+import de.tum.in.www1.jReto.connectivity.OutTransfer;
+
+/**
+ * Tests that the sender never gets further ahead of the data handled by the receiver than the receiver's buffer limit.
+ * */
+public class FlowControlTest {
+	@Test(timeout=10000)
+	public void testFlowControl() {
+		new FlowControlTest().testTransfer(PeerConfiguration.directNeighborConfiguration(), 64*1024);
+	}
+	@Test(timeout=10000)
+	public void testFlowControl2Hop() {
+		new FlowControlTest().testTransfer(PeerConfiguration.twoHopRoutedConfiguration(), 64*1024);
+	}
+	@Test(timeout=10000)
+	public void testLimitBelowPacketSize() {
+		new FlowControlTest().testTransfer(PeerConfiguration.directNeighborConfiguration(), 1000);
+	}
+	@Test(timeout=10000)
+	public void testSenderStallsWithoutDemand() {
+		new FlowControlTest().testUnrequestedTransfers(PeerConfiguration.directNeighborConfiguration(), 4096);
+	}
+
+	static final int TRANSFER_LENGTH = 2*1024*1024;
+	static final int UNREQUESTED_TRANSFER_COUNT = 16;
+	static final int UNREQUESTED_TRANSFER_LENGTH = 64*1024;
+
+	int receivedLength = 0;
+	int maximumBufferedLength = 0;
+	boolean isCompleted = false;
+	OutTransfer outTransfer;
+
+	public void testTransfer(final PeerConfiguration configuration, final int receiveBufferLimit) {
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setReceiveBufferLimit(receiveBufferLimit);
+				connection.setOnTransfer((c, transfer) -> {
+					transfer.setOnPartialData((t, data) -> this.onData(t, data));
+					transfer.setOnComplete(t -> {
+						isCompleted = true;
+						configuration.runloop.stop();
+					});
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			outTransfer = connection.send(TestData.generate(TRANSFER_LENGTH));
+		});
+
+		assertTrue(isCompleted);
+		assertEquals(TRANSFER_LENGTH, receivedLength);
+		// The limit is announced once the connection is established, so a first packet may be sent before it is known.
+		assertTrue("Sender was "+maximumBufferedLength+" bytes ahead", maximumBufferedLength <= Math.max(receiveBufferLimit, AdaptivePacketSizer.DEFAULT_PACKET_SIZE));
+	}
+	
+	/**
+	 * The receiver requests a single byte of each transfer and nothing more. The data the sender sends before it receives a transfer's credit 
+	 * is buffered by the transfers until it is requested, so the sender needs to stall once the buffered data reaches the limit.
+	 * */
+	public void testUnrequestedTransfers(final PeerConfiguration configuration, final int receiveBufferLimit) {
+		final List<OutTransfer> outTransfers = new ArrayList<>();
+		
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setReceiveBufferLimit(receiveBufferLimit);
+				connection.setOnTransfer((c, transfer) -> {
+					transfer.setOnPartialData((t, data) -> receivedLength += data.remaining());
+					transfer.requestData(1);
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			for (int i=0; i<UNREQUESTED_TRANSFER_COUNT; i++) outTransfers.add(connection.send(TestData.generate(UNREQUESTED_TRANSFER_LENGTH)));
+			
+			// Give the sender time to send everything it is allowed to, then check that it stopped.
+			new Thread(() -> {
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {}
+				configuration.runloop.execute(() -> configuration.runloop.stop());
+			}).start();
+		});
+
+		int sentLength = 0;
+		for (OutTransfer transfer : outTransfers) sentLength += transfer.getProgress();
+		assertTrue(sentLength < UNREQUESTED_TRANSFER_COUNT * UNREQUESTED_TRANSFER_LENGTH);
+		assertTrue("Sender was "+(sentLength - receivedLength)+" bytes ahead", sentLength - receivedLength <= Math.max(receiveBufferLimit, AdaptivePacketSizer.DEFAULT_PACKET_SIZE));
+	}
+	
+	void onData(InTransfer transfer, ByteBuffer data) {
+		while (data.hasRemaining()) {
+			assertEquals(receivedLength % 127, data.get());
+			receivedLength++;
+		}
+		
+		maximumBufferedLength = Math.max(maximumBufferedLength, outTransfer.getProgress() - receivedLength);
+	}
+}
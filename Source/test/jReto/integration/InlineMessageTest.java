@@ -0,0 +1,73 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.connectivity.TransferProcessor;
+import de.tum.in.www1.jReto.util.CountDown;
+
+/**
+ * Tests that small messages sent with sendMessage are received in order, both via onData and via onTransfer.
+ * */
+public class InlineMessageTest {
+	@Test(timeout=5000)
+	public void testMessagesDirect() {
+		new InlineMessageTest().testMessages(PeerConfiguration.directNeighborConfiguration(), false);
+	}
+	@Test(timeout=5000)
+	public void testMessages2Hop() {
+		new InlineMessageTest().testMessages(PeerConfiguration.twoHopRoutedConfiguration(), false);
+	}
+	@Test(timeout=5000)
+	public void testMessagesAsTransfers() {
+		new InlineMessageTest().testMessages(PeerConfiguration.directNeighborConfiguration(), true);
+	}
+
+	static final int MESSAGE_COUNT = 50;
+	static final int LARGE_MESSAGE_LENGTH = TransferProcessor.DEFAULT_MAXIMUM_MESSAGE_LENGTH + 1;
+
+	List<Integer> receivedLengths = new ArrayList<>();
+
+	public void testMessages(final PeerConfiguration configuration, final boolean receiveTransfers) {
+		final CountDown allMessagesReceived = new CountDown(MESSAGE_COUNT + 1, () -> configuration.runloop.stop());
+
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				Connection.ConnectionDataHandler dataHandler = (c, data) -> {
+					int length = data.remaining();
+					TestData.verify(data, length);
+					receivedLengths.add(length);
+					allMessagesReceived.countDown();
+				};
+				
+				if (receiveTransfers) {
+					connection.setOnTransfer((c, transfer) -> transfer.setOnCompleteData((t, data) -> dataHandler.onData(c, data)));
+				} else {
+					connection.setOnData(dataHandler);
+				}
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+
+			for (int length=1; length<=MESSAGE_COUNT; length++) connection.sendMessage(TestData.generate(length));
+			// Messages exceeding the maximum message length are sent as transfers.
+			connection.sendMessage(TestData.generate(LARGE_MESSAGE_LENGTH));
+		});
+
+		List<Integer> expectedLengths = new ArrayList<>();
+		for (int length=1; length<=MESSAGE_COUNT; length++) expectedLengths.add(length);
+		expectedLengths.add(LARGE_MESSAGE_LENGTH);
+		
+		assertEquals(expectedLengths, receivedLengths);
+	}
+}
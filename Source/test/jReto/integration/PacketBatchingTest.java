@@ -0,0 +1,52 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.util.CountDown;
+
+/**
+ * Tests that small transfers arrive intact and in order when packet batching is enabled.
+ * */
+public class PacketBatchingTest {
+	@Test(timeout=1000)
+	public void testPacketBatchingDirect() {
+		new PacketBatchingTest().testPacketBatching(PeerConfiguration.directNeighborConfiguration());
+	}
+	@Test(timeout=1000)
+	public void testPacketBatching2Hop() {
+		new PacketBatchingTest().testPacketBatching(PeerConfiguration.twoHopRoutedConfiguration());
+	}
+
+	static final int TRANSFER_COUNT = 50;
+
+	int receivedTransfers = 0;
+
+	public void testPacketBatching(final PeerConfiguration configuration) {
+		final CountDown allTransfersReceived = new CountDown(TRANSFER_COUNT, () -> configuration.runloop.stop());
+
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnData((c, data) -> {
+					receivedTransfers++;
+					TestData.verify(data, receivedTransfers);
+					allTransfersReceived.countDown();
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			connection.setPacketBatchingEnabled(true);
+
+			for (int i=1; i<=TRANSFER_COUNT; i++) connection.send(TestData.generate(i));
+		});
+
+		assertEquals(TRANSFER_COUNT, receivedTransfers);
+	}
+}
@@ -0,0 +1,71 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.connectivity.TransferOutputStream;
+
+/**
+ * Tests that data written to a TransferOutputStream is received as a single transfer, including when the writer is blocked by backpressure.
+ * */
+public class StreamTransferTest {
+	@Test(timeout=10000)
+	public void testStreamDirect() {
+		new StreamTransferTest().testStream(PeerConfiguration.directNeighborConfiguration(), 3*1024*1024);
+	}
+	@Test(timeout=10000)
+	public void testStream2Hop() {
+		new StreamTransferTest().testStream(PeerConfiguration.twoHopRoutedConfiguration(), 3*1024*1024);
+	}
+	@Test(timeout=5000)
+	public void testEmptyStream() {
+		new StreamTransferTest().testStream(PeerConfiguration.directNeighborConfiguration(), 0);
+	}
+
+	static final int WRITE_LENGTH = 1000;
+
+	int receivedLength = -1;
+	Exception writeException;
+
+	public void testStream(final PeerConfiguration configuration, final int streamLength) {
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnData((c, data) -> {
+					receivedLength = data.remaining();
+					TestData.verify(data, receivedLength);
+					configuration.runloop.stop();
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			TransferOutputStream outputStream = connection.openOutputStream();
+
+			// Writes may block, so the data is produced on a separate thread.
+			new Thread(() -> {
+				ByteBuffer data = TestData.generate(streamLength);
+				try {
+					for (int offset=0; offset<streamLength; offset+=WRITE_LENGTH) {
+						outputStream.write(data.array(), offset, Math.min(WRITE_LENGTH, streamLength - offset));
+					}
+					outputStream.close();
+				} catch (IOException e) {
+					writeException = e;
+				}
+			}).start();
+		});
+
+		assertNull(writeException);
+		assertEquals(streamLength, receivedLength);
+	}
+}
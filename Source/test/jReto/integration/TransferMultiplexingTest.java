@@ -0,0 +1,63 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.util.CountDown;
+
+/**
+ * Tests that a small transfer is not blocked by a large transfer that was started before it.
+ * */
+public class TransferMultiplexingTest {
+	@Test(timeout=5000)
+	public void testTransferMultiplexingDirect() {
+		new TransferMultiplexingTest().testTransferMultiplexing(PeerConfiguration.directNeighborConfiguration(), 16, Arrays.asList(SMALL_TRANSFER_LENGTH, LARGE_TRANSFER_LENGTH));
+	}
+	@Test(timeout=5000)
+	public void testTransferMultiplexing2Hop() {
+		new TransferMultiplexingTest().testTransferMultiplexing(PeerConfiguration.twoHopRoutedConfiguration(), 16, Arrays.asList(SMALL_TRANSFER_LENGTH, LARGE_TRANSFER_LENGTH));
+	}
+	@Test(timeout=5000)
+	public void testSequentialTransfers() {
+		new TransferMultiplexingTest().testTransferMultiplexing(PeerConfiguration.directNeighborConfiguration(), 1, Arrays.asList(LARGE_TRANSFER_LENGTH, SMALL_TRANSFER_LENGTH));
+	}
+
+	static final int LARGE_TRANSFER_LENGTH = 1024*1024;
+	static final int SMALL_TRANSFER_LENGTH = 100;
+
+	List<Integer> completedTransferLengths = new ArrayList<>();
+
+	public void testTransferMultiplexing(final PeerConfiguration configuration, final int maximumActiveTransfers, List<Integer> expectedCompletionOrder) {
+		final CountDown allTransfersReceived = new CountDown(2, () -> configuration.runloop.stop());
+
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnData((c, data) -> {
+					int length = data.remaining();
+					TestData.verify(data, length);
+					completedTransferLengths.add(length);
+					allTransfersReceived.countDown();
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			connection.setMaximumActiveTransfers(maximumActiveTransfers);
+
+			connection.send(TestData.generate(LARGE_TRANSFER_LENGTH));
+			connection.send(TestData.generate(SMALL_TRANSFER_LENGTH));
+		});
+
+		assertEquals(expectedCompletionOrder, completedTransferLengths);
+	}
+}
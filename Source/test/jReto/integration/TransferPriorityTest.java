@@ -0,0 +1,69 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.util.CountDown;
+
+/**
+ * Tests that transfers with higher priorities or weights complete before transfers that were started earlier.
+ * Transfers are identified by their lengths.
+ * */
+public class TransferPriorityTest {
+	static final int FIRST_TRANSFER_LENGTH = 512*1024;
+	static final int SECOND_TRANSFER_LENGTH = 512*1024 + 1;
+
+	@Test(timeout=5000)
+	public void testHigherPriorityFirst() {
+		new TransferPriorityTest().testTransferOrder(PeerConfiguration.directNeighborConfiguration(), 16, new int[] { 0, 1 }, new int[] { 1, 1 });
+	}
+	@Test(timeout=5000)
+	public void testHigherPriorityFirst2Hop() {
+		new TransferPriorityTest().testTransferOrder(PeerConfiguration.twoHopRoutedConfiguration(), 16, new int[] { 0, 1 }, new int[] { 1, 1 });
+	}
+	@Test(timeout=5000)
+	public void testHigherPriorityStartsWhenAllTransfersAreActive() {
+		new TransferPriorityTest().testTransferOrder(PeerConfiguration.directNeighborConfiguration(), 1, new int[] { 0, 1 }, new int[] { 1, 1 });
+	}
+	@Test(timeout=5000)
+	public void testHigherWeightFirst() {
+		new TransferPriorityTest().testTransferOrder(PeerConfiguration.directNeighborConfiguration(), 16, new int[] { 0, 0 }, new int[] { 1, 4 });
+	}
+
+	List<Integer> completedTransferLengths = new ArrayList<>();
+
+	/** Sends two transfers with the given priorities and weights, and expects the second one to complete first. */
+	public void testTransferOrder(final PeerConfiguration configuration, final int maximumActiveTransfers, final int[] priorities, final int[] weights) {
+		final CountDown allTransfersReceived = new CountDown(2, () -> configuration.runloop.stop());
+
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnData((c, data) -> {
+					int length = data.remaining();
+					TestData.verify(data, length);
+					completedTransferLengths.add(length);
+					allTransfersReceived.countDown();
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			connection.setMaximumActiveTransfers(maximumActiveTransfers);
+
+			connection.send(TestData.generate(FIRST_TRANSFER_LENGTH), priorities[0], weights[0]);
+			connection.send(TestData.generate(SECOND_TRANSFER_LENGTH), priorities[1], weights[1]);
+		});
+
+		assertEquals(Arrays.asList(SECOND_TRANSFER_LENGTH, FIRST_TRANSFER_LENGTH), completedTransferLengths);
+	}
+}
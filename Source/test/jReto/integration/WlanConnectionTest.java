@@ -0,0 +1,244 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jReto.util.RunLoop;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.module.api.Connection;
+import de.tum.in.www1.jReto.module.wlan.WlanConnection;
+import de.tum.in.www1.jReto.niotools.ChannelReader;
+import de.tum.in.www1.jReto.niotools.ChannelWriter;
+import de.tum.in.www1.jReto.niotools.DispatcherGroup;
+import de.tum.in.www1.jReto.niotools.FileRegion;
+import de.tum.in.www1.jReto.util.CountDown;
+
+/**
+ * Tests the length prefixed framing of WlanConnections using a local TCP connection.
+ * */
+public class WlanConnectionTest {
+	int sentPackets = 0;
+	int receivedPackets = 0;
+	int maximumBytesPerRead = ChannelReader.DEFAULT_MAXIMUM_BYTES_PER_READ;
+	int maximumFramesPerRead = ChannelReader.DEFAULT_MAXIMUM_FRAMES_PER_READ;
+
+	@Test(timeout=5000)
+	public void testFraming() throws IOException {
+		new WlanConnectionTest().testFraming(new int[] {1, 4, 5, 100, 32*1024, 3, 200*1024, 7, 1, 64*1024});
+	}
+	@Test(timeout=5000)
+	public void testManySmallFrames() throws IOException {
+		int[] packetLengths = new int[5000];
+		for (int i=0; i<packetLengths.length; i++) packetLengths[i] = 1 + i%50;
+
+		new WlanConnectionTest().testFraming(packetLengths);
+	}
+	@Test(timeout=5000)
+	public void testFramingWithMultipleDispatchers() throws IOException {
+		new WlanConnectionTest().testFraming(new int[] {1, 100, 200*1024, 7}, 2);
+	}
+
+	@Test(timeout=5000)
+	public void testFramingWithSmallReadBudget() throws IOException {
+		WlanConnectionTest test = new WlanConnectionTest();
+		test.maximumBytesPerRead = 1;
+		test.maximumFramesPerRead = 1;
+		test.testFraming(new int[] {1, 4, 5, 100, 32*1024, 3, 200*1024, 7, 1, 64*1024});
+	}
+
+	@Test(timeout=5000)
+	public void testGatheredFrames() throws IOException {
+		new WlanConnectionTest().testFraming(new int[] {1, 100, 32*1024, 200*1024}, 1, true);
+	}
+	@Test(timeout=5000)
+	public void testFileRegionFrames() throws IOException {
+		new WlanConnectionTest().testFraming(new int[] {1, 100, 32*1024, 3, 2*1024*1024, 7}, 1, true, true);
+	}
+	@Test(timeout=5000)
+	public void testWritability() throws IOException {
+		new WlanConnectionTest().testWritability(ChannelWriter.DEFAULT_LOW_WATERMARK, ChannelWriter.DEFAULT_HIGH_WATERMARK, true);
+	}
+	@Test(timeout=5000)
+	public void testConfiguredWatermarks() throws IOException {
+		new WlanConnectionTest().testWritability(Integer.MAX_VALUE/2, Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * Writes 64 packets of half the default high watermark. If isUnwritableExpected is set, checks that the connection becomes unwritable, 
+	 * and writable again once the data was written; otherwise, checks that it stays writable.
+	 * */
+	public void testWritability(int lowWatermark, int highWatermark, final boolean isUnwritableExpected) throws IOException {
+		final RunLoop runloop = new RunLoop(false);
+		final DispatcherGroup dispatcherGroup = new DispatcherGroup(runloop, 1, DispatcherGroup.Assignment.ROUND_ROBIN);
+		dispatcherGroup.setWriteWatermarks(lowWatermark, highWatermark);
+		dispatcherGroup.start();
+
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		final WlanConnection outConnection = new WlanConnection(dispatcherGroup.next(), InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+		outConnection.connect();
+		final WlanConnection inConnection = new WlanConnection(dispatcherGroup.next(), serverChannel.accept());
+		final int packetCount = 64;
+		final int packetLength = ChannelWriter.DEFAULT_HIGH_WATERMARK / 2;
+		final List<Boolean> writabilityChanges = new ArrayList<>();
+
+		inConnection.setHandler(new TestHandler() {
+			@Override
+			public void onDataReceived(Connection connection, ByteBuffer data) {
+				receivedPackets++;
+			}
+		});
+		outConnection.setHandler(new TestHandler() {
+			@Override
+			public void onDataSent(Connection connection) {
+				sentPackets++;
+				if (sentPackets == packetCount) runloop.stop();
+			}
+			@Override
+			public void onWritabilityChanged(Connection connection) {
+				writabilityChanges.add(connection.isWritable());
+			}
+		});
+
+		runloop.execute(() -> {
+			assertTrue(outConnection.isWritable());
+			for (int i=0; i<packetCount; i++) outConnection.writeData(TestData.generate(packetLength));
+			assertEquals(isUnwritableExpected, !outConnection.isWritable());
+			// The handler is never called from within write, only once the writer's events are handled.
+			assertTrue(writabilityChanges.isEmpty());
+		});
+		runloop.start();
+
+		// Changes are reported with the write events, so several of them may be reported at once. The last one needs to report the connection as writable.
+		assertEquals(isUnwritableExpected, !writabilityChanges.isEmpty());
+		if (isUnwritableExpected) assertTrue(writabilityChanges.get(writabilityChanges.size() - 1));
+		assertTrue(outConnection.isWritable());
+
+		outConnection.close();
+		inConnection.close();
+		serverChannel.close();
+		dispatcherGroup.stop();
+	}
+
+	public void testFraming(final int[] packetLengths) throws IOException {
+		this.testFraming(packetLengths, 1);
+	}
+	public void testFraming(final int[] packetLengths, int dispatcherCount) throws IOException {
+		this.testFraming(packetLengths, dispatcherCount, false);
+	}
+	/**
+	 * Sends frames of the given lengths. If useGatheringWrites is set, each frame is passed to the connection as its first byte and the remaining bytes in separate buffers.
+	 * */
+	public void testFraming(final int[] packetLengths, int dispatcherCount, final boolean useGatheringWrites) throws IOException {
+		this.testFraming(packetLengths, dispatcherCount, useGatheringWrites, false);
+	}
+	/**
+	 * Sends frames of the given lengths. If useGatheringWrites is set, each frame is passed to the connection as its first byte and the remaining bytes in separate buffers.
+	 * If useFileRegions is set as well, the remaining bytes are sent from a temporary file.
+	 * */
+	public void testFraming(final int[] packetLengths, int dispatcherCount, final boolean useGatheringWrites, final boolean useFileRegions) throws IOException {
+		final FileChannel fileChannel = useFileRegions ? createTestFile(Arrays.stream(packetLengths).max().getAsInt()) : null;
+		final RunLoop runloop = new RunLoop(false);
+		final DispatcherGroup dispatcherGroup = new DispatcherGroup(runloop, dispatcherCount, DispatcherGroup.Assignment.ROUND_ROBIN);
+		dispatcherGroup.setReadBudget(this.maximumBytesPerRead, this.maximumFramesPerRead);
+		dispatcherGroup.start();
+
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		final WlanConnection outConnection = new WlanConnection(dispatcherGroup.next(), InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+		outConnection.connect();
+		SocketChannel acceptedChannel = serverChannel.accept();
+		final WlanConnection inConnection = new WlanConnection(dispatcherGroup.next(), acceptedChannel);
+
+		final CountDown stopCountdown = new CountDown(2, () -> runloop.stop());
+
+		inConnection.setHandler(new TestHandler() {
+			@Override
+			public void onDataReceived(Connection connection, ByteBuffer data) {
+				TestData.verify(data, packetLengths[receivedPackets]);
+				receivedPackets++;
+
+				if (receivedPackets == packetLengths.length) stopCountdown.countDown();
+			}
+		});
+		outConnection.setHandler(new TestHandler() {
+			@Override
+			public void onDataSent(Connection connection) {
+				sentPackets++;
+
+				if (sentPackets == packetLengths.length) stopCountdown.countDown();
+			}
+		});
+
+		runloop.execute(() -> {
+			for (int length : packetLengths) {
+				ByteBuffer data = TestData.generate(length);
+				
+				if (useGatheringWrites && length > 1) {
+					ByteBuffer head = data.duplicate();
+					head.limit(1);
+					data.position(1);
+					
+					if (useFileRegions) {
+						outConnection.writeData(new ByteBuffer[] { head }, new FileRegion(fileChannel, 1, length - 1));
+					} else {
+						outConnection.writeData(new ByteBuffer[] { head, data });
+					}
+				} else {
+					outConnection.writeData(data);
+				}
+			}
+		});
+		runloop.start();
+
+		assertEquals(packetLengths.length, sentPackets);
+		assertEquals(packetLengths.length, receivedPackets);
+
+		outConnection.close();
+		inConnection.close();
+		serverChannel.close();
+		dispatcherGroup.stop();
+		if (fileChannel != null) fileChannel.close();
+	}
+	/**
+	 * Creates a temporary file that contains test data of the given length, and opens it for reading. The file is deleted when it is closed.
+	 * */
+	static FileChannel createTestFile(int length) throws IOException {
+		Path path = Files.createTempFile("jReto", null);
+		FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		ByteBuffer data = TestData.generate(length);
+		while (data.hasRemaining()) fileChannel.write(data);
+		
+		return fileChannel;
+	}
+
+	static class TestHandler implements Connection.Handler {
+		@Override
+		public void onConnect(Connection connection) {}
+		@Override
+		public void onClose(Connection connection) {}
+		@Override
+		public void onDataReceived(Connection connection, ByteBuffer data) {}
+		@Override
+		public void onDataSent(Connection connection) {}
+	}
+}
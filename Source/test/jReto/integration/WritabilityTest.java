@@ -0,0 +1,70 @@
+package jReto.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jReto.meta.PeerConfiguration;
+import jReto.util.RunLoop;
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.Connection;
+import de.tum.in.www1.jReto.RemotePeer;
+import de.tum.in.www1.jReto.util.CountDown;
+
+/**
+ * Tests that a Connection becomes unwritable when more data than its high watermark is buffered, and writable again once the data was sent.
+ * */
+public class WritabilityTest {
+	@Test(timeout=1000)
+	public void testWritabilityDirect() {
+		new WritabilityTest().testWritability(PeerConfiguration.directNeighborConfiguration());
+	}
+	@Test(timeout=1000)
+	public void testWritability2Hop() {
+		new WritabilityTest().testWritability(PeerConfiguration.twoHopRoutedConfiguration());
+	}
+
+	static final int TRANSFER_COUNT = 3;
+	static final int TRANSFER_LENGTH = 10000;
+
+	int writabilityChanges = 0;
+	RunLoop runloop;
+
+	public void testWritability(final PeerConfiguration configuration) {
+		this.runloop = configuration.runloop;
+
+		final CountDown allTransfersReceived = new CountDown(TRANSFER_COUNT + 1, () -> runloop.stop());
+
+		configuration.startAndExecuteAfterDiscovery(() -> {
+			configuration.peer2.setIncomingConnectionHandler((peer, connection) -> {
+				connection.setOnData((c, data) -> {
+					TestData.verify(data, TRANSFER_LENGTH);
+					allTransfersReceived.countDown();
+				});
+			});
+
+			RemotePeer destination = configuration.peer1.getPeers().stream().filter(p -> p.getUniqueIdentifier().equals(configuration.peer2.getUniqueIdentifier())).findFirst().get();
+			Connection connection = destination.connect();
+			connection.setWriteBufferWatermarks(TRANSFER_LENGTH, 2*TRANSFER_LENGTH);
+			connection.setOnWritabilityChanged(c -> {
+				writabilityChanges++;
+
+				if (c.isWritable()) {
+					assertEquals(2, writabilityChanges);
+					allTransfersReceived.countDown();
+				} else {
+					assertEquals(1, writabilityChanges);
+				}
+			});
+
+			assertTrue(connection.isWritable());
+			for (int i=0; i<TRANSFER_COUNT; i++) connection.send(TestData.generate(TRANSFER_LENGTH));
+			assertFalse(connection.isWritable());
+		});
+
+		assertEquals(2, writabilityChanges);
+	}
+}
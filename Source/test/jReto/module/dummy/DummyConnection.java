@@ -135,7 +135,11 @@ public class DummyConnection implements Connection {
 			System.err.println("Attempting to write packet with unknown type: "+type);
 		}
 		data.rewind();
-		this.writer.write(data);
+		// Like a real network, deliver a copy: the sender may reuse its buffer once onDataSent was called.
+		ByteBuffer copy = ByteBuffer.allocate(data.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+		copy.put(data);
+		copy.flip();
+		this.writer.write(copy);
 		
 		runloop.execute(new Runnable() {
 
@@ -0,0 +1,72 @@
+package jReto.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.connectivity.AdaptivePacketSizer;
+
+/**
+ * Tests for AdaptivePacketSizer.
+ * */
+public class AdaptivePacketSizerTest {
+	private static final long MILLISECOND = 1000*1000;
+
+	@Test
+	public void testGrowsOnFastConnection() {
+		AdaptivePacketSizer sizer = new AdaptivePacketSizer(4096, 1024, 64*1024);
+
+		// 4096 bytes in 1ms is about 4MB/s, so a 10ms packet would be about 40KB; the size may at most double per packet.
+		sizer.onPacketSent(4096, MILLISECOND);
+		assertEquals(8192, sizer.getPacketSize());
+
+		for (int i=0; i<20; i++) sizer.onPacketSent(sizer.getPacketSize(), sizer.getPacketSize() * MILLISECOND / 4096);
+		assertEquals(40960, sizer.getPacketSize(), 4096);
+	}
+
+	@Test
+	public void testShrinksOnSlowConnection() {
+		AdaptivePacketSizer sizer = new AdaptivePacketSizer(32*1024, 1024, 64*1024);
+
+		sizer.onPacketSent(32*1024, 100*MILLISECOND);
+		assertEquals(16*1024, sizer.getPacketSize());
+
+		for (int i=0; i<20; i++) sizer.onPacketSent(sizer.getPacketSize(), 100*MILLISECOND);
+		assertEquals(1024, sizer.getPacketSize());
+	}
+
+	@Test
+	public void testStaysWithinBounds() {
+		AdaptivePacketSizer sizer = new AdaptivePacketSizer(100*1024, 1024, 64*1024);
+		assertEquals(64*1024, sizer.getPacketSize());
+
+		for (int i=0; i<20; i++) sizer.onPacketSent(sizer.getPacketSize(), 1);
+		assertEquals(64*1024, sizer.getPacketSize());
+	}
+
+	@Test
+	public void testIgnoresSmallPackets() {
+		AdaptivePacketSizer sizer = new AdaptivePacketSizer(32*1024, 1024, 64*1024);
+
+		for (int i=0; i<20; i++) sizer.onPacketSent(100, 100*MILLISECOND);
+		assertEquals(32*1024, sizer.getPacketSize());
+		assertEquals(0, sizer.getThroughput(), 0);
+	}
+
+	@Test
+	public void testReset() {
+		AdaptivePacketSizer sizer = new AdaptivePacketSizer(4096, 1024, 64*1024);
+		sizer.onPacketSent(4096, MILLISECOND);
+		assertTrue(sizer.getThroughput() > 0);
+
+		sizer.reset(2048, 512, 4096);
+		assertEquals(2048, sizer.getPacketSize());
+		assertEquals(0, sizer.getThroughput(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBounds() {
+		new AdaptivePacketSizer(4096, 8192, 1024);
+	}
+}
@@ -0,0 +1,88 @@
+package jReto.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.niotools.PooledBuffer;
+import de.tum.in.www1.jReto.niotools.SizeClassBufferPool;
+
+/**
+ * Tests for SizeClassBufferPool and PooledBuffer.
+ * */
+public class BufferPoolTest {
+	@Test
+	public void testSizeClasses() {
+		SizeClassBufferPool pool = new SizeClassBufferPool(64, 1024, 4, false);
+
+		assertEquals(64, pool.acquire(1).getBuffer().capacity());
+		assertEquals(64, pool.acquire(64).getBuffer().capacity());
+		assertEquals(128, pool.acquire(65).getBuffer().capacity());
+		assertEquals(1024, pool.acquire(1000).getBuffer().capacity());
+		assertEquals(5000, pool.acquire(5000).getBuffer().capacity());
+	}
+
+	@Test
+	public void testAcquiredBufferState() {
+		SizeClassBufferPool pool = new SizeClassBufferPool(64, 1024, 4, true);
+		PooledBuffer buffer = pool.acquire(100);
+
+		assertTrue(buffer.getBuffer().isDirect());
+		assertEquals(0, buffer.getBuffer().position());
+		assertEquals(100, buffer.getBuffer().limit());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.getBuffer().order());
+		assertEquals(1, buffer.getReferenceCount());
+	}
+
+	@Test
+	public void testReuseAfterRelease() {
+		SizeClassBufferPool pool = new SizeClassBufferPool(64, 1024, 4, false);
+		PooledBuffer buffer = pool.acquire(100);
+		buffer.getBuffer().putInt(42);
+		buffer.release();
+
+		PooledBuffer reusedBuffer = pool.acquire(120);
+		assertSame(buffer, reusedBuffer);
+		assertEquals(0, reusedBuffer.getBuffer().position());
+		assertEquals(120, reusedBuffer.getBuffer().limit());
+		assertEquals(1, reusedBuffer.getReferenceCount());
+	}
+
+	@Test
+	public void testRetainedBufferIsNotReused() {
+		SizeClassBufferPool pool = new SizeClassBufferPool(64, 1024, 4, false);
+		PooledBuffer buffer = pool.acquire(100).retain();
+		buffer.release();
+
+		assertNotSame(buffer, pool.acquire(100));
+
+		buffer.release();
+		assertSame(buffer, pool.acquire(100));
+	}
+
+	@Test
+	public void testOversizedBuffersAreNotPooled() {
+		SizeClassBufferPool pool = new SizeClassBufferPool(64, 1024, 4, false);
+		PooledBuffer buffer = pool.acquire(2000);
+		buffer.release();
+
+		assertNotSame(buffer, pool.acquire(2000));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testDoubleRelease() {
+		PooledBuffer buffer = new SizeClassBufferPool(64, 1024, 4, false).acquire(10);
+		buffer.release();
+		buffer.release();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSizeClasses() {
+		new SizeClassBufferPool(100, 1024, 4, false);
+	}
+}
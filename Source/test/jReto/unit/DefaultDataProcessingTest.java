@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import de.tum.in.www1.jReto.connectivity.DefaultDataConsumer;
 import de.tum.in.www1.jReto.connectivity.DefaultDataSource;
+import de.tum.in.www1.jReto.connectivity.Transfer;
 
 /**
  * Tests for DefaultDataConsumer and DefaultDataSource.
@@ -38,6 +39,16 @@ public class DefaultDataProcessingTest {
 		consumer.consume(TestData.generate(51));
 	}
 	
+	@Test
+	public void testUnknownLengthConsumer() {
+		DefaultDataConsumer consumer = new DefaultDataConsumer(Transfer.UNKNOWN_LENGTH);
+		DefaultDataSource source = new DefaultDataSource(TestData.generate(10000));
+		
+		for (int i=0; i<10000; i+=999) consumer.consume(source.getData(i, Math.min(10000-i, 999)));
+		
+		TestData.verify(consumer.getData(), 10000);
+	}
+	
 	@Test
 	public void testDataGeneration() {
 		int length = 100;
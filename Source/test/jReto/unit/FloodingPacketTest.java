@@ -16,12 +16,12 @@ public class FloodingPacketTest {
 	@Test
 	public void test() {
 		UUID identifier = UUID.randomUUID();
-		DataPacket packet = new DataPacket(TestData.generate(16));
+		DataPacket packet = new DataPacket(1, TestData.generate(16));
 		FloodingPacket flood = new FloodingPacket(identifier, 1, packet.serialize());
 		FloodingPacket flood2 = FloodingPacket.deserialize(flood.serialize());
 		
 		assertNotNull(flood2);
-		assert(flood2.payload.remaining() == 20);
+		assert(flood2.payload.remaining() == DataPacket.MINIMUM_LENGTH + 16);
 		
 		DataPacket packet2 = DataPacket.deserialize(flood2.payload);
 	
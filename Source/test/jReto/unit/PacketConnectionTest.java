@@ -0,0 +1,252 @@
+package jReto.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import jReto.util.TestData;
+
+import org.junit.Test;
+
+import de.tum.in.www1.jReto.connectivity.PacketConnection;
+import de.tum.in.www1.jReto.connectivity.TransferProcessor;
+import de.tum.in.www1.jReto.connectivity.packet.CloseRequest;
+import de.tum.in.www1.jReto.connectivity.packet.DataPacket;
+import de.tum.in.www1.jReto.module.api.Connection;
+import de.tum.in.www1.jReto.packet.PacketType;
+
+/**
+ * Tests PacketConnection's in-flight window using an underlying connection that only completes writes when told to.
+ * */
+public class PacketConnectionTest {
+	static class ManualConnection implements Connection {
+		Connection.Handler handler;
+		List<ByteBuffer> writtenData = new ArrayList<>();
+
+		@Override
+		public void setHandler(Handler handler) {
+			this.handler = handler;
+		}
+		@Override
+		public Handler getHandler() {
+			return this.handler;
+		}
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+		@Override
+		public int getRecommendedPacketSize() {
+			return 1024;
+		}
+		@Override
+		public void connect() {}
+		@Override
+		public void close() {}
+		@Override
+		public void writeData(ByteBuffer data) {
+			this.writtenData.add(data);
+		}
+		void completeWrite() {
+			this.handler.onDataSent(this);
+		}
+	}
+
+	static class CountingHandler implements PacketConnection.Handler {
+		int noPacketsLeftCount = 0;
+		List<DataPacket> receivedPackets = new ArrayList<>();
+
+		@Override
+		public void onUnderlyingConnectionClose(PacketConnection connection) {}
+		@Override
+		public void onWillSwapUnderlyingConnection(PacketConnection connection) {}
+		@Override
+		public void onUnderlyingConnectionConnected(PacketConnection connection) {}
+		@Override
+		public void onNoPacketsLeft(PacketConnection connection) {
+			this.noPacketsLeftCount++;
+		}
+		@Override
+		public void onUnderlyingConnectionWritabilityChanged(PacketConnection connection) {}
+		@Override
+		public Set<PacketType> getHandledPacketTypes() {
+			Set<PacketType> types = new HashSet<>();
+			types.add(PacketType.DATA_PACKET);
+			return types;
+		}
+		@Override
+		public void handlePacket(ByteBuffer data, PacketType type) {
+			this.receivedPackets.add(DataPacket.deserialize(data));
+		}
+	}
+
+	ManualConnection underlyingConnection = new ManualConnection();
+	CountingHandler handler = new CountingHandler();
+	PacketConnection packetConnection = new PacketConnection(underlyingConnection, UUID.randomUUID(), new HashSet<>());
+
+	@Test
+	public void testPacketWindow() {
+		this.packetConnection.addDelegate(this.handler);
+		this.packetConnection.setInFlightWindow(3, 1024*1024);
+
+		for (int i=0; i<5; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(100)));
+		assertEquals(3, this.underlyingConnection.writtenData.size());
+		assertEquals(3, this.packetConnection.getPacketsInFlight());
+		this.handler.noPacketsLeftCount = 0;
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(4, this.underlyingConnection.writtenData.size());
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(5, this.underlyingConnection.writtenData.size());
+		assertEquals(0, this.handler.noPacketsLeftCount);
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(1, this.handler.noPacketsLeftCount);
+		assertEquals(2, this.packetConnection.getPacketsInFlight());
+	}
+
+	@Test
+	public void testByteWindow() {
+		this.packetConnection.setInFlightWindow(10, 250);
+
+		for (int i=0; i<5; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(100)));
+		assertEquals(3, this.underlyingConnection.writtenData.size());
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(4, this.underlyingConnection.writtenData.size());
+	}
+
+	@Test
+	public void testOversizedPacketIsSentAlone() {
+		this.packetConnection.setInFlightWindow(10, 50);
+
+		for (int i=0; i<2; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(100)));
+		assertEquals(1, this.underlyingConnection.writtenData.size());
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(2, this.underlyingConnection.writtenData.size());
+	}
+
+	@Test
+	public void testControlPacketsOvertakeBulkPackets() {
+		this.packetConnection.setInFlightWindow(1, 1024*1024);
+		this.packetConnection.setLane(PacketType.DATA_PACKET, PacketConnection.BULK_LANE);
+
+		for (int i=0; i<3; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(100)));
+		this.packetConnection.writePacket(new CloseRequest());
+		assertEquals(1, this.underlyingConnection.writtenData.size());
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(2, this.underlyingConnection.writtenData.size());
+		assertEquals(PacketType.CLOSE_REQUEST, PacketType.fromData(this.underlyingConnection.writtenData.get(1)));
+		assertEquals(PacketType.DATA_PACKET, PacketType.fromData(this.underlyingConnection.writtenData.get(0)));
+	}
+
+	@Test
+	public void testRemoveUnsentPackets() {
+		this.packetConnection.setInFlightWindow(1, 1024*1024);
+
+		for (int i=0; i<3; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(100)));
+		this.packetConnection.writePacket(new CloseRequest());
+		this.packetConnection.removeUnsentPackets(packet -> packet.getType() == PacketType.DATA_PACKET);
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(2, this.underlyingConnection.writtenData.size());
+		assertEquals(PacketType.CLOSE_REQUEST, PacketType.fromData(this.underlyingConnection.writtenData.get(1)));
+
+		this.underlyingConnection.completeWrite();
+		assertEquals(2, this.underlyingConnection.writtenData.size());
+	}
+
+	/** Passes the data written to one connection to the handler of another connection. */
+	static void deliver(List<ByteBuffer> data, ManualConnection receivingConnection) {
+		for (ByteBuffer buffer : data) receivingConnection.handler.onDataReceived(receivingConnection, buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	@Test
+	public void testRetransmissionAfterSwap() {
+		ManualConnection receivingUnderlyingConnection = new ManualConnection();
+		PacketConnection receivingConnection = new PacketConnection(receivingUnderlyingConnection, UUID.randomUUID(), new HashSet<>());
+		CountingHandler receivingHandler = new CountingHandler();
+		receivingConnection.addDelegate(receivingHandler);
+
+		this.packetConnection.setIsAcknowledgementEnabled(true);
+		this.packetConnection.setInFlightWindow(10, 1024*1024);
+		for (int i=1; i<=5; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(i)));
+		assertEquals(5, this.underlyingConnection.writtenData.size());
+		assertEquals(5, this.packetConnection.getUnacknowledgedPacketCount());
+
+		// Only the first three packets arrive before the underlying connection fails.
+		deliver(this.underlyingConnection.writtenData.subList(0, 3), receivingUnderlyingConnection);
+		assertEquals(3, receivingHandler.receivedPackets.size());
+		assertTrue(receivingConnection.getIsReceivingSequencedPackets());
+		// The receiver acknowledges the packets, but only sequences its own packets if acknowledgements were enabled for it.
+		assertFalse(receivingConnection.getIsAcknowledgementEnabled());
+
+		deliver(receivingUnderlyingConnection.writtenData, this.underlyingConnection);
+		assertEquals(2, this.packetConnection.getUnacknowledgedPacketCount());
+
+		ManualConnection newUnderlyingConnection = new ManualConnection();
+		ManualConnection newReceivingUnderlyingConnection = new ManualConnection();
+		receivingConnection.swapUnderlyingConnection(newReceivingUnderlyingConnection);
+		this.packetConnection.swapUnderlyingConnection(newUnderlyingConnection);
+		assertEquals(2, newUnderlyingConnection.writtenData.size());
+
+		// A packet that was already received is discarded.
+		deliver(this.underlyingConnection.writtenData.subList(2, 3), newReceivingUnderlyingConnection);
+		deliver(newUnderlyingConnection.writtenData, newReceivingUnderlyingConnection);
+		assertEquals(5, receivingHandler.receivedPackets.size());
+		for (int i=0; i<5; i++) TestData.verify(receivingHandler.receivedPackets.get(i).data, i+1);
+
+		deliver(newReceivingUnderlyingConnection.writtenData, newUnderlyingConnection);
+		assertEquals(0, this.packetConnection.getUnacknowledgedPacketCount());
+	}
+
+	@Test
+	public void testRetransmitBufferLimitsUnacknowledgedPackets() {
+		this.packetConnection.setIsAcknowledgementEnabled(true);
+		this.packetConnection.setInFlightWindow(10, 1024*1024);
+		this.packetConnection.setRetransmitBufferSize(2);
+
+		for (int i=0; i<5; i++) this.packetConnection.writePacket(new DataPacket(1, TestData.generate(100)));
+		assertEquals(2, this.underlyingConnection.writtenData.size());
+
+		this.underlyingConnection.completeWrite();
+		this.underlyingConnection.completeWrite();
+		assertEquals(2, this.underlyingConnection.writtenData.size());
+	}
+
+	@Test
+	public void testUnsentMessagesCountTowardsWritability() {
+		TransferProcessor transferProcessor = new TransferProcessor(this.packetConnection);
+		transferProcessor.setWatermarks(0, 150);
+		// The window announcement of the processor is in flight, so the messages are queued.
+		this.packetConnection.setInFlightWindow(1, 1024*1024);
+
+		transferProcessor.sendMessage(TestData.generate(100));
+		assertEquals(100, transferProcessor.getUnsentBytes());
+		assertTrue(transferProcessor.getIsWritable());
+		
+		transferProcessor.sendMessage(TestData.generate(100));
+		assertEquals(200, transferProcessor.getUnsentBytes());
+		assertFalse(transferProcessor.getIsWritable());
+
+		while (this.packetConnection.getPacketsInFlight() != 0) this.underlyingConnection.completeWrite();
+		assertEquals(0, transferProcessor.getUnsentBytes());
+		assertTrue(transferProcessor.getIsWritable());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWindow() {
+		this.packetConnection.setInFlightWindow(0, 1024);
+	}
+}
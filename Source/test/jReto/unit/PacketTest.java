@@ -5,11 +5,18 @@ import static org.junit.Assert.*;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 import jReto.util.TestData;
 
 import org.junit.Test;
 
+import de.tum.in.www1.jReto.connectivity.packet.BatchPacket;
+import de.tum.in.www1.jReto.connectivity.packet.CancelledTransferPacket;
+import de.tum.in.www1.jReto.connectivity.packet.DataPacket;
+import de.tum.in.www1.jReto.connectivity.packet.ManagedConnectionHandshake;
 import de.tum.in.www1.jReto.packet.DataChecker;
 import de.tum.in.www1.jReto.packet.DataReader;
 import de.tum.in.www1.jReto.packet.DataWriter;
@@ -41,11 +48,18 @@ public class PacketTest {
 		}
 		
 		@Override
-		public ByteBuffer serialize() {
-			DataWriter data = new DataWriter(this.length);
+		public PacketType getType() {
+			return this.type;
+		}
+		@Override
+		public int serializedSize() {
+			return this.length;
+		}
+		@Override
+		public void serializeInto(ByteBuffer buffer) {
+			DataWriter data = new DataWriter(buffer);
 			data.add(this.type);
 			data.add(TestData.generate(length-4));
-			return data.getData();
 		}
 	}
 	
@@ -83,4 +97,85 @@ public class PacketTest {
 		assertNull(packet);
 	    assertEquals("Basic data check failed: Unexpected type. Expected: CLOSE_REQUEST. Received: DATA_PACKET\n", outContent.toString());
 	}
+	
+	@Test
+	public void testDataPacketHeaderAndPayload() {
+		DataPacket packet = new DataPacket(42, TestData.generate(100));
+		
+		ByteBuffer header = ByteBuffer.allocate(packet.headerSize());
+		packet.serializeHeaderInto(header);
+		header.flip();
+		ByteBuffer payload = packet.getPayload();
+		
+		ByteBuffer serializedPacket = packet.serialize();
+		assertEquals(packet.serializedSize(), serializedPacket.remaining());
+		assertEquals(packet.serializedSize(), header.remaining() + payload.remaining());
+		
+		ByteBuffer concatenatedPacket = ByteBuffer.allocate(packet.serializedSize());
+		concatenatedPacket.put(header).put(payload).flip();
+		assertEquals(serializedPacket, concatenatedPacket);
+		
+		DataPacket packet2 = DataPacket.deserialize(concatenatedPacket);
+		assertEquals(packet.transferIdentifier, packet2.transferIdentifier);
+		TestData.verify(packet2.data, 100);
+	}
+	
+	@Test
+	public void testBatchPacket() {
+		BatchPacket batch = new BatchPacket(Arrays.asList(new TestPacket(PacketType.CLOSE_REQUEST, 16), new DataPacket(1, TestData.generate(100))));
+		
+		ByteBuffer serializedBatch = batch.serialize();
+		assertEquals(batch.serializedSize(), serializedBatch.remaining());
+		assertEquals(PacketType.PACKET_BATCH, PacketType.fromData(serializedBatch));
+		
+		List<ByteBuffer> packets = BatchPacket.deserialize(serializedBatch);
+		assertEquals(2, packets.size());
+		assertEquals(PacketType.CLOSE_REQUEST, PacketType.fromData(packets.get(0)));
+		assertEquals(PacketType.DATA_PACKET, PacketType.fromData(packets.get(1)));
+		assertEquals(16, packets.get(0).remaining());
+		assertEquals(DataPacket.MINIMUM_LENGTH + 100, packets.get(1).remaining());
+		
+		TestData.verify(DataPacket.deserialize(packets.get(1)).data, 100);
+	}
+	
+	@Test
+	public void testBatchPacketTruncated() {
+		ByteBuffer serializedBatch = new BatchPacket(Arrays.asList(new TestPacket(PacketType.CLOSE_REQUEST, 16))).serialize();
+		serializedBatch.limit(serializedBatch.limit() - 1);
+		
+		assertNull(BatchPacket.deserialize(serializedBatch));
+	}
+	
+	@Test
+	public void testCancelledTransferPacket() {
+		CancelledTransferPacket packet = CancelledTransferPacket.deserialize(new CancelledTransferPacket(-7, true).serialize());
+		
+		assertEquals(-7, packet.transferIdentifier);
+		assertTrue(packet.isSentBySender);
+		assertFalse(CancelledTransferPacket.deserialize(new CancelledTransferPacket(3, false).serialize()).isSentBySender);
+	}
+	
+	@Test
+	public void testManagedConnectionHandshakeCapabilities() {
+		UUID connectionIdentifier = UUID.randomUUID();
+		ManagedConnectionHandshake handshake = ManagedConnectionHandshake.deserialize(new ManagedConnectionHandshake(connectionIdentifier).serialize());
+		
+		assertEquals(connectionIdentifier, handshake.connectionIdentifier);
+		assertEquals(ManagedConnectionHandshake.SUPPORTED_CAPABILITIES, handshake.capabilities);
+		assertTrue(handshake.hasRequiredCapabilities());
+		assertFalse(handshake.hasCapability(ManagedConnectionHandshake.CAPABILITY_ACKNOWLEDGEMENTS));
+		
+		handshake = ManagedConnectionHandshake.deserialize(new ManagedConnectionHandshake(connectionIdentifier, ManagedConnectionHandshake.SUPPORTED_CAPABILITIES | ManagedConnectionHandshake.CAPABILITY_ACKNOWLEDGEMENTS).serialize());
+		assertTrue(handshake.hasRequiredCapabilities());
+		assertTrue(handshake.hasCapability(ManagedConnectionHandshake.CAPABILITY_ACKNOWLEDGEMENTS));
+		
+		// Handshakes of peers that do not announce capabilities end after the connection identifier.
+		ByteBuffer legacyHandshake = new ManagedConnectionHandshake(connectionIdentifier).serialize();
+		legacyHandshake.limit(ManagedConnectionHandshake.MINIMUM_LENGTH);
+		handshake = ManagedConnectionHandshake.deserialize(legacyHandshake);
+		
+		assertEquals(connectionIdentifier, handshake.connectionIdentifier);
+		assertEquals(0, handshake.capabilities);
+		assertFalse(handshake.hasRequiredCapabilities());
+	}
 }